@@ -1,6 +1,22 @@
+import structure.Arguments;
+import structure.AtomTable;
+import structure.BatchRunner;
+import structure.ContactMapFile;
+import structure.Contacts;
+import structure.LongList;
+import structure.Metrics;
+import structure.PdbReader;
+import structure.Pools;
+import structure.SparseContacts;
+import structure.VerletList;
+
 import java.io.*;
-import java.util.ArrayList;
-import java.util.Scanner;
+import java.math.BigDecimal;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Program which reads a Protein Data Bank and generates a file containing alpha-carbon residue pairs
@@ -8,128 +24,281 @@ import java.util.Scanner;
  * By Lenia Malki
  *
  * How to run:
- *  * 1. Run the command line: java Single_segment_scan file.pdb
+ *  * 1. Run the command line: javac -d out -sourcepath .:../../Structure_Common/src Distance_map_generator.java
+ *  and then java -cp out Distance_map_generator [--threads N] file.pdb
  *  * where "file" refers to the PDB-file. A output file will be created by the name "residue.pairs"
+ *  mmCIF (.cif, .mmcif) and BinaryCIF (.bcif) files are read as well, e.g. assemblies too large for the PDB format
+ *  Files compressed with gzip or zstd (e.g. file.pdb.gz, file.cif.gz) are decompressed while they are read
+ *  --threads N computes the contacts on N threads (0 for all processors), the output is the same
+ *  --batch dir|manifest [--out dir] [--jobs N] instead writes dir/name.pairs for every PDB file of
+ *  a directory or manifest (one path per line), N files at a time, and a summary.tsv of all files
+ *  --binary writes the compact binary contact map format (.cmap) instead of text pairs,
+ *  see Pairs_converter to convert between the two
+ *  --metrics file.json writes the time, allocation and counters of every phase (parse, pairs, count, write)
+ *  --frames [--skin S] follows the contacts through the models (MODEL/ENDMDL) of an NMR ensemble or trajectory
+ *  and writes residue.frames, one line per model: the number of contacts and how many formed and broke since
+ *  the model before. The pairs within 8Å plus a skin of S Å (default 2) are kept between models, and only the
+ *  alpha-carbons that moved more than S/2 are searched again (see VerletList).
+ *  --cutoffs 6,8,10,12 writes one file per cutoff instead of the pairs within 8Å, e.g. residue.6A.pairs, all
+ *  from one neighbour search at the largest cutoff; with --batch, dir/name.6A.pairs and so on
  *  2. Give the command line argument dotplot.tcl file.pairs
  *  where "file" refers to the newly generated file of pairs.
  */
 public class Distance_map_generator {
 
     /**
-     * Data of all alpha carbons
+     * Contact distance between alpha-carbons in Å
+     */
+    static final double CUTOFF = 8;
+    /**
+     * Skin of the neighbour list kept between models in Å
      */
-    static ArrayList<String[]> alphaCarbons = new ArrayList<>();
+    static final double DEFAULT_SKIN = 2;
 
     public static void main(String[] args) {
 
-        if (args.length == 0) {
-            System.err.println("File argument missing. First, run command line: javac Distance_map_generator.java and then java Distance_map_generator file.pdb");
+        Arguments arguments = new Arguments(args, "--threads", "--batch", "--out", "--jobs", "--metrics", "--skin", "--cutoffs");
+        boolean binary = arguments.has("--binary");
+        double[] cutoffs = arguments.has("--cutoffs") ? parseCutoffs(arguments.value("--cutoffs", "")) : null;
+        if (arguments.files().isEmpty() && !arguments.has("--batch")) {
+            System.err.println("File argument missing. First, run command line: javac Distance_map_generator.java and then java Distance_map_generator [--threads N] file.pdb");
             System.exit(0);
         }
+        ForkJoinPool pool = Pools.of(arguments.intValue("--threads", 1));
+        Metrics metrics = new Metrics("Distance_map_generator");
         try {
-
-            FileInputStream inputFile = new FileInputStream(args[0]);
-            Scanner fileScanner = new Scanner(inputFile);
-
-            while (fileScanner.hasNextLine()) {
-                getCA_data(fileScanner.nextLine());
+            if (arguments.has("--batch")) {
+                BatchRunner batch = new BatchRunner(1, binary ? ".cmap" : ".pairs", arguments.intValue("--jobs", 0));
+                int failed = batch.run(Paths.get(arguments.value("--batch", "")), Paths.get(arguments.value("--out", "pairs")),
+                        (inputs, output) -> processFile(inputs[0], output.toFile(), cutoffs, pool, binary, metrics));
+                if (failed > 0) {
+                    System.err.println(failed + " file(s) failed, see summary.tsv");
+                }
+            } else if (arguments.has("--frames")) {
+                processFrames(Paths.get(arguments.files().get(0)), nextOutputFile(".frames"), arguments.doubleValue("--skin", DEFAULT_SKIN), metrics);
+            } else {
+                processFile(Paths.get(arguments.files().get(0)), nextOutputFile(binary ? ".cmap" : ".pairs", cutoffs), cutoffs, pool, binary, metrics);
             }
-            generateResidueFile();
-            fileScanner.close();
-        } catch (FileNotFoundException e) {
+            if (arguments.has("--metrics")) {
+                metrics.writeJson(Paths.get(arguments.value("--metrics", "")));
+            }
+        } catch (NoSuchFileException e) {
             System.out.println("Error: Could not find file.");
             e.printStackTrace();
-        } catch (IOException e) {
+        } catch (IOException | InterruptedException e) {
             e.printStackTrace();
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
         }
 
     }
 
-    //Hello
-
     /**
-     * Methods which checks for CA atoms
+     * Reads the alpha carbons of one PDB file and writes their pairs within 8Å, or within each of
+     * several cutoffs, to a file
      *
-     * @param pdb_line the data inputted
+     * @param input      the PDB file
+     * @param outputFile the file to write the pairs to; with cutoffs, the name the file of every
+     *                   cutoff is made from (see {@link #cutoffFile})
+     * @param cutoffs    the cutoffs in Å to write a file for, or null for the pairs within 8Å only
+     * @param pool       pool to compute the contacts on, or null for a single thread
+     * @param binary     true to write the binary contact map format instead of text pairs
+     * @param metrics    the metrics to record the phases in
+     * @return the number of alpha carbons and contacts found, within the first cutoff
+     * @throws IOException if the PDB file cannot be read or the pairs cannot be written
      */
-    private static void getCA_data(String pdb_line) {
-
-        if (pdb_line.startsWith("ATOM")) {
-            String[] atom_line = pdb_line.split("\\s+");
-
-            //If it is a CA_atom, save its data to the list of alphaCarbons
-            if (atom_line[2].equals("CA")) {
-
-                String[] residue_line = {atom_line[5], atom_line[6], atom_line[7], atom_line[8]};
-                alphaCarbons.add(alphaCarbons.size(), residue_line);
+    static BatchRunner.Result processFile(Path input, File outputFile, double[] cutoffs, ForkJoinPool pool, boolean binary, Metrics metrics) throws IOException {
+        Metrics.Run run = metrics.run(input.toString());
+        AtomTable alphaCarbons;
+        try (Metrics.Phase phase = run.phase("parse")) {
+            alphaCarbons = PdbReader.alphaCarbons().read(input);
+            phase.count("atoms", alphaCarbons.size());
+        }
+        SparseContacts[] contacts;
+        try (Metrics.Phase phase = run.phase("pairs")) {
+            contacts = SparseContacts.of(alphaCarbons, cutoffs == null ? new double[]{CUTOFF} : cutoffs, pool);
+            phase.count("pairsTested", contacts[0].comparisons());
+        }
+        BatchRunner.Result result = new BatchRunner.Result();
+        try (Metrics.Phase phase = run.phase("count")) {
+            result.atoms = alphaCarbons.size();
+            result.contacts = contacts[0].count();
+            phase.count("contacts", result.contacts);
+        }
+        try (Metrics.Phase phase = run.phase("write")) {
+            long bytes = 0;
+            for (int k = 0; k < contacts.length; k++) {
+                File file = cutoffs == null ? outputFile : cutoffFile(outputFile, cutoffs[k]);
+                generateResidueFile(contacts[k], file, binary, pool);
+                bytes += file.length();
             }
+            phase.count("bytes", bytes);
         }
+        return result;
     }
 
     /**
-     * Calculates the distance between one pair of residues
-     *
-     * @param atom_1 CA-atom 1
-     * @param atom_2 CA-atom 2
-     * @return the calculateddistance
+     * @param list cutoffs in Å separated by commas, e.g. 6,8,10,12
      */
-    static double calculateDistance(String[] atom_1, String[] atom_2) {
+    private static double[] parseCutoffs(String list) {
+        String[] values = list.split(",");
+        double[] cutoffs = new double[values.length];
+        for (int k = 0; k < values.length; k++) {
+            cutoffs[k] = Double.parseDouble(values[k].trim());
+            if (!(cutoffs[k] > 0)) {
+                throw new IllegalArgumentException("Cutoff must be positive: " + values[k]);
+            }
+        }
+        return cutoffs;
+    }
 
-        double atom1_x, atom1_y, atom1_z;
-        double atom2_x, atom2_y, atom2_z;
+    /**
+     * @return the file of the pairs within a cutoff, the cutoff inserted before the extension,
+     * e.g. residue.8A.pairs for residue.pairs
+     */
+    static File cutoffFile(File outputFile, double cutoff) {
+        String name = outputFile.getName();
+        int dot = name.lastIndexOf('.');
+        String label = "." + BigDecimal.valueOf(cutoff).stripTrailingZeros().toPlainString() + "A";
+        String cutoffName = dot < 0 ? name + label : name.substring(0, dot) + label + name.substring(dot);
+        return new File(outputFile.getParentFile(), cutoffName);
+    }
 
-        atom1_x = Double.parseDouble(atom_1[1]);
-        atom1_y = Double.parseDouble(atom_1[2]);
-        atom1_z = Double.parseDouble(atom_1[3]);
+    /**
+     * Follows the alpha-carbon contacts through the models of a file and writes the number of
+     * contacts of every model. Every model must have the same alpha-carbons.
+     *
+     * @param input      the PDB file, models separated by ENDMDL (or END)
+     * @param outputFile the file to write the contacts of every model to
+     * @param skin       the skin of the neighbour list in Å
+     * @param metrics    the metrics to record the phases in
+     * @throws IOException if the PDB file cannot be read, a model differs in size or the file cannot be written
+     */
+    static void processFrames(Path input, File outputFile, double skin, Metrics metrics) throws IOException {
+        Metrics.Run run = metrics.run(input.toString());
+        try (Metrics.Phase phase = run.phase("pairs");
+             BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile))) {
+            writer.append("# frame contacts formed broken rebuilt");
+            writer.newLine();
+            Frames frames = new Frames(writer, skin);
+            PdbReader.alphaCarbons().readEntries(input, frames);
+            phase.count("frames", frames.count).count("rebuiltAtoms", frames.rebuiltAtoms);
+        }
+    }
 
-        atom2_x = Double.parseDouble(atom_2[1]);
-        atom2_y = Double.parseDouble(atom_2[2]);
-        atom2_z = Double.parseDouble(atom_2[3]);
+    /**
+     * The contacts of the models read so far
+     */
+    private static final class Frames implements PdbReader.EntryHandler {
+        private final BufferedWriter writer;
+        private final double skin;
+        private VerletList neighbours;
+        private LongList previous = new LongList();
+        private LongList current = new LongList();
+        int count;
+        long rebuiltAtoms;
+
+        Frames(BufferedWriter writer, double skin) {
+            this.writer = writer;
+            this.skin = skin;
+        }
 
+        @Override
+        public void entry(int number, AtomTable alphaCarbons) throws IOException {
+            if (neighbours == null) {
+                double[] radii = new double[alphaCarbons.size()];
+                Arrays.fill(radii, CUTOFF / 2);
+                neighbours = new VerletList(radii, null, skin);
+            } else if (alphaCarbons.size() != neighbours.size()) {
+                throw new IOException("Model " + number + " has " + alphaCarbons.size() + " alpha-carbons, the first has " + neighbours.size());
+            }
+            rebuiltAtoms += neighbours.update(alphaCarbons.xs(), alphaCarbons.ys(), alphaCarbons.zs());
+            neighbours.contacts(current);
+
+            // Both lists are sorted, so the pairs formed and broken are found in one merge
+            int formed = 0;
+            int broken = 0;
+            int i = 0;
+            int j = 0;
+            while (i < previous.size() || j < current.size()) {
+                if (j == current.size() || i < previous.size() && previous.get(i) < current.get(j)) {
+                    broken++;
+                    i++;
+                } else if (i == previous.size() || current.get(j) < previous.get(i)) {
+                    formed++;
+                    j++;
+                } else {
+                    i++;
+                    j++;
+                }
+            }
+            writer.append(String.valueOf(number)).append(' ').append(String.valueOf(current.size())).append(' ')
+                    .append(String.valueOf(formed)).append(' ').append(String.valueOf(broken)).append(' ')
+                    .append(String.valueOf(neighbours.rebuiltAtoms()));
+            writer.newLine();
+            LongList swap = previous;
+            previous = current;
+            current = swap;
+            count++;
+        }
+    }
 
-        return Math.sqrt(Math.pow(atom1_x - atom2_x, 2) + Math.pow(atom1_y - atom2_y, 2) + Math.pow(atom1_z - atom2_z, 2));
+    /**
+     * Finds the first of residue.pairs, residue1.pairs, residue2.pairs, ... that does not exist yet
+     *
+     * @param extension the extension of the file, ".pairs" or ".cmap"
+     */
+    private static File nextOutputFile(String extension) {
+        return nextOutputFile(extension, null);
     }
 
     /**
-     * Calculates the distance between two alpha-carbon atoms and saves their residue numbers to a file
+     * Finds the first of residue.pairs, residue1.pairs, residue2.pairs, ... whose files of the
+     * cutoffs do not exist yet
      *
-     * @throws IOException throws exception if writer cannot write to file
+     * @param extension the extension of the file, ".pairs" or ".cmap"
+     * @param cutoffs   the cutoffs of the files, or null for the file itself
      */
-    private static void generateResidueFile() throws IOException {
+    private static File nextOutputFile(String extension, double[] cutoffs) {
         int fileNumber = 0;
 
-        File outputFile = new File("residue.pairs");
+        File outputFile = new File("residue" + extension);
 
-        while (outputFile.exists()) {
+        while (exists(outputFile, cutoffs)) {
             fileNumber++;
-            outputFile = new File("residue" + fileNumber + ".pairs");
+            outputFile = new File("residue" + fileNumber + extension);
         }
+        return outputFile;
+    }
 
-
-        BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile));
-
-        for (int i = 0; i <= alphaCarbons.size() - 1; i++) {
-            for (int j = 0; j <= alphaCarbons.size() - 1; j++) {
-
-                double distance = calculateDistance(alphaCarbons.get(i), alphaCarbons.get(j));
-
-                //If distance is less than 8, save the pair to the list of pairs and append it to the outputFile
-                if (distance < 8) {
-
-                    int residueX = Integer.parseInt(alphaCarbons.get(i)[0]); //Gets the first number of the pair {residueX, -}
-                    int residueY = Integer.parseInt(alphaCarbons.get(j)[0]); //Gets the second number of the pair : {-, residueY}
-
-                    writer.append(String.valueOf(residueX)).append(" ").append(String.valueOf(residueY));
-                    writer.newLine();
-
-                }
+    private static boolean exists(File outputFile, double[] cutoffs) {
+        if (cutoffs == null) {
+            return outputFile.exists();
+        }
+        for (double cutoff : cutoffs) {
+            if (cutoffFile(outputFile, cutoff).exists()) {
+                return true;
             }
         }
-        writer.close();
+        return false;
+    }
 
+    /**
+     * Saves the residue numbers of every pair of alpha-carbon atoms in contact to a file.
+     * In the text format both orders of a pair are written, as well as every residue paired with itself.
+     *
+     * @param contacts   the contacts to write
+     * @param outputFile the file to write to
+     * @param binary     true to write the binary contact map format instead of text pairs
+     * @throws IOException throws exception if writer cannot write to file
+     */
+    static void generateResidueFile(Contacts contacts, File outputFile, boolean binary, ForkJoinPool pool) throws IOException {
+        if (binary) {
+            ContactMapFile.writeBinary(contacts, outputFile.toPath());
+        } else {
+            ContactMapFile.writeText(contacts, outputFile.toPath(), pool);
+        }
     }
 }
-
-
-
-
@@ -0,0 +1,42 @@
+import structure.ContactMapFile;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Program which converts a contact map between the text pairs format written by
+ * Distance_map_generator and the compact binary format (.cmap). The direction is
+ * picked from the input: a binary map is written out as text and the other way around.
+ *
+ * How to run:
+ * 1. Run the command line: javac -d out -sourcepath .:../../Structure_Common/src Pairs_converter.java
+ * and then java -cp out Pairs_converter input output
+ * where "input" is a .pairs or .cmap file and "output" is the file to create.
+ */
+public class Pairs_converter {
+
+    public static void main(String[] args) {
+
+        if (args.length < 2) {
+            System.err.println("File arguments missing. Run java Pairs_converter residue.pairs residue.cmap or java Pairs_converter residue.cmap residue.pairs");
+            System.exit(0);
+        }
+        try {
+            Path input = Paths.get(args[0]);
+            Path output = Paths.get(args[1]);
+
+            if (ContactMapFile.isBinary(input)) {
+                ContactMapFile.writeText(ContactMapFile.open(input), output);
+            } else {
+                ContactMapFile.writeBinary(ContactMapFile.readText(input), output);
+            }
+        } catch (NoSuchFileException e) {
+            System.out.println("Error: Could not find file.");
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
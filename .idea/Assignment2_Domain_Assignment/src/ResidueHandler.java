@@ -1,6 +1,6 @@
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
+import structure.Contacts;
+import structure.LongList;
+import structure.PairSet;
 
 /**
  * Abstract class which sorts out a list of interacting residues do exclusively unique tuples.
@@ -8,50 +8,47 @@ import java.util.Arrays;
  */
 public abstract class ResidueHandler {
 
-    static ArrayList<int[]> residuePairs = new ArrayList<>();
-
     /**
-     * Calculates the distance between two alpha-carbon atoms and saves their residue numbers to an array
+     * Collects the residue numbers of every pair of alpha-carbon atoms in contact
+     *
+     * @param contacts the contact map to read the pairs from, one row at a time
+     * @return pairs of residue numbers, packed with PairSet.pack
      **/
-    private static void matchResiduePairs() throws IOException {
-        for (int i = 0; i <= Distance_map_generator.alphaCarbons.size() - 1; i++) {
-            for (int j = 0; j <= Distance_map_generator.alphaCarbons.size() - 1; j++) {
-
-                double distance = Distance_map_generator.calculateDistance(Distance_map_generator.alphaCarbons.get(i), Distance_map_generator.alphaCarbons.get(j));
-
-                //If distance is less than 8, save the pair to the list of pairs and append it to the file
-                if (distance < 8) {
-
-                    int residueX = Integer.parseInt(Distance_map_generator.alphaCarbons.get(i)[0]); //Gets the first number of the pair {residueX, -}
-                    int residueY = Integer.parseInt(Distance_map_generator.alphaCarbons.get(j)[0]); //Gets the second number of the pair : {-, residueY}
-
-                    int[] newPair = {residueX, residueY};
-                    if (residueX != residueY) {
-                        residuePairs.add(newPair);
-                    }
+    private static LongList matchResiduePairs(Contacts contacts) {
+        LongList residuePairs = new LongList();
+        int[] columns = new int[contacts.size()];
+        for (int i = 0; i <= contacts.size() - 1; i++) {
+            int length = contacts.row(i, columns);
+            for (int k = 0; k < length; k++) {
+
+                int residueX = contacts.residueNumber(i); //Gets the first number of the pair {residueX, -}
+                int residueY = contacts.residueNumber(columns[k]); //Gets the second number of the pair : {-, residueY}
+
+                if (residueX != residueY) {
+                    residuePairs.add(PairSet.pack(residueX, residueY));
                 }
             }
         }
+        return residuePairs;
     }
 
     /**
-     * Method for extracting only unique tuples of residue pairs within a threshold
+     * Method for extracting only unique tuples of residue pairs within a threshold.
+     * Every pair is kept the first time it or its mirror is seen, with the lower residue number
+     * first, in one pass over the list with a hash set of the pairs seen.
+     *
+     * @param residuePairs pairs of residue numbers packed with PairSet.pack, reduced in place
      */
-    private static void extractUniquePairs() {
-
+    private static void extractUniquePairs(LongList residuePairs) {
+        PairSet seen = new PairSet(residuePairs.size());
+        int unique = 0;
         for (int i = 0; i < residuePairs.size(); i++) {
-            for (int j = i + 1; j < residuePairs.size(); j++) {
-                {
-                    int[] currentPair = {residuePairs.get(i)[0], residuePairs.get(i)[1]};
-                    int[] mirroredPair = {currentPair[1], currentPair[0]};
-
-                    if ((Arrays.equals(residuePairs.get(j), mirroredPair))) {
-                        residuePairs.remove(j);
-                        break;
-                    }
-                }
+            long pair = residuePairs.get(i);
+            long canonicalPair = PairSet.canonical(PairSet.first(pair), PairSet.second(pair));
+            if (seen.add(canonicalPair)) {
+                residuePairs.set(unique++, canonicalPair);
             }
         }
+        residuePairs.truncate(unique);
     }
-
 }
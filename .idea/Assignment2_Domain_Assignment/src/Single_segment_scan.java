@@ -1,8 +1,21 @@
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Scanner;
+import structure.Arguments;
+import structure.AtomTable;
+import structure.BatchRunner;
+import structure.ContactMapFile;
+import structure.Contacts;
+import structure.Metrics;
+import structure.PdbReader;
+import structure.Pools;
+import structure.SparseContacts;
+import structure.SplitCounts;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Program which reads a Protein Data Bank and identifies the residue
@@ -10,186 +23,193 @@ import java.util.Scanner;
  * By Lenia Malki
  *
  * How to run:
- * 1. Run the command line: java Single_segment_scan file.pdb
- * where "file" refers to the PDB-file.
+ * 1. Run the command line: javac -d out -sourcepath .:../../Structure_Common/src Single_segment_scan.java
+ * and then java -cp out Single_segment_scan [--threads N] file.pdb
+ * where "file" refers to the PDB-file, or a binary contact map (.cmap) written by Distance_map_generator --binary.
+ * mmCIF (.cif, .mmcif) and BinaryCIF (.bcif) files are read as well, and any of them compressed with gzip or zstd (e.g. file.pdb.gz).
+ * --threads N computes the contacts on N threads (0 for all processors).
+ * --batch dir|manifest [--out dir] [--jobs N] instead writes the best partition of every PDB file of
+ * a directory or manifest (one path per line) to dir/name.split, N files at a time, and a summary.tsv of all files
+ * --metrics file.json writes the time, allocation and counters of every phase (parse, pairs, index, count, write)
+ * --cutoff C counts the residues closer than C Å as contacts instead of 8Å; a contact map is scanned as it was written,
+ * see Distance_map_generator --cutoffs
  */
 public class Single_segment_scan {
 
-    static ArrayList<String[]> alphaCarbons = new ArrayList<>();
-    static ArrayList<int[]> splitScores = new ArrayList<>();
-    static List<int[]> tempScoreArray = new ArrayList<>();
-
-    static int INT_A = 0;
-    static int INT_B = 0;
-    static int EXT_AB = 0;
-
+    /**
+     * Contact distance between alpha-carbons in Å
+     */
+    static final double CUTOFF = 8;
 
     public static void main(String[] args) {
 
-        if (args.length == 0) {
-            System.err.println("File argument missing. First, run command line: javac Single_segment_scan.java and then java Single_segment_scan file.pdb");
+        Arguments arguments = new Arguments(args, "--threads", "--batch", "--out", "--jobs", "--metrics", "--cutoff");
+        double cutoff = arguments.doubleValue("--cutoff", CUTOFF);
+        if (arguments.files().isEmpty() && !arguments.has("--batch")) {
+            System.err.println("File argument missing. First, run command line: javac Single_segment_scan.java and then java Single_segment_scan [--threads N] file.pdb");
             System.exit(0);
         }
+        ForkJoinPool pool = Pools.of(arguments.intValue("--threads", 1));
+        Metrics metrics = new Metrics("Single_segment_scan");
         try {
-            FileInputStream file = new FileInputStream(args[0]);
-            Scanner fileScanner = new Scanner(file);
+            if (arguments.has("--batch")) {
+                BatchRunner batch = new BatchRunner(1, ".split", arguments.intValue("--jobs", 0));
+                int failed = batch.run(Paths.get(arguments.value("--batch", "")), Paths.get(arguments.value("--out", "splits")),
+                        (inputs, output) -> {
+                            Metrics.Run run = metrics.run(inputs[0].toString());
+                            Contacts contacts = readContacts(inputs[0], cutoff, pool, run);
+                            double[] splitScores = generatePartition(contacts, run);
+                            try (Metrics.Phase phase = run.phase("write");
+                                 BufferedWriter writer = Files.newBufferedWriter(output)) {
+                                writer.append(getMaxSplitValue(splitScores));
+                                writer.newLine();
+                            }
+                            BatchRunner.Result result = new BatchRunner.Result();
+                            result.atoms = contacts.size();
+                            result.contacts = contacts.count();
+                            result.bestSplit = bestSplit(splitScores);
+                            return result;
+                        });
+                if (failed > 0) {
+                    System.err.println(failed + " file(s) failed, see summary.tsv");
+                }
+            } else {
+                Metrics.Run run = metrics.run(arguments.files().get(0));
+                Contacts contacts = readContacts(Paths.get(arguments.files().get(0)), cutoff, pool, run);
 
-            while (fileScanner.hasNextLine()) {
-                getCA_data(fileScanner.nextLine());
+                double[] splitScores = generatePartition(contacts, run);
+                try (Metrics.Phase phase = run.phase("write")) {
+                    System.out.println(getMaxSplitValue(splitScores));
+                }
+            }
+            if (arguments.has("--metrics")) {
+                metrics.writeJson(Paths.get(arguments.value("--metrics", "")));
             }
-            fileScanner.close();
-
-            generatePartition();
-            getMaxSplitValue();
 
-        } catch (FileNotFoundException e) {
+        } catch (NoSuchFileException e) {
             System.out.println("Error: Could not find file.");
             e.printStackTrace();
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
         }
     }
 
     /**
-     * Methods which extracts CA-data
+     * Reads the contacts of a chain: a binary contact map is mapped as it is, for a PDB file
+     * the contacts (CA-CA distance below the cutoff) are found with a neighbour search
      *
-     * @param pdb_line the data inputted
+     * @param file   the PDB file or binary contact map
+     * @param cutoff contact distance in Å for a PDB file
+     * @param pool   pool to compute the contacts on, or null for a single thread
+     * @param run    the metrics to record the phases in
+     * @return the contacts
+     * @throws IOException if the file cannot be read
      */
-    private static void getCA_data(String pdb_line) {
-        if (pdb_line.startsWith("ATOM")) {
-            String[] atom_line = pdb_line.split("\\s+");
-
-            //If it is a CA_atom, save its data to the list of alphaCarbons
-            if (atom_line[2].equals("CA")) {
-
-                String[] residue_line = {atom_line[5], atom_line[6], atom_line[7], atom_line[8]};
-                alphaCarbons.add(alphaCarbons.size(), residue_line);
+    static Contacts readContacts(Path file, double cutoff, ForkJoinPool pool, Metrics.Run run) throws IOException {
+        AtomTable alphaCarbons;
+        try (Metrics.Phase phase = run.phase("parse")) {
+            if (ContactMapFile.isBinary(file)) {
+                Contacts contacts = ContactMapFile.open(file);
+                phase.count("residues", contacts.size());
+                return contacts;
             }
+            alphaCarbons = PdbReader.alphaCarbons().read(file);
+            phase.count("atoms", alphaCarbons.size());
+        }
+        try (Metrics.Phase phase = run.phase("pairs")) {
+            SparseContacts contacts = SparseContacts.of(alphaCarbons, cutoff, pool);
+            phase.count("pairsTested", contacts.comparisons()).count("contacts", contacts.count());
+            return contacts;
         }
     }
 
     /**
-     * Calculates the distance between two residues
+     * Scores every split index, recording the split counts as the index phase and the scoring as the count phase
      *
-     * @param atom_1 CA-atom 1
-     * @param atom_2 CA-atom 2
-     * @return the calculation
+     * @param residueContacts the contacts of the chain
+     * @param run             the metrics to record the phases in
+     * @return the score of every split index, see {@link #generatePartition(Contacts)}
      */
-    private static double calculateDistance(String[] atom_1, String[] atom_2) {
-
-        double atom1_x, atom1_y, atom1_z;
-        double atom2_x, atom2_y, atom2_z;
-
-        atom1_x = Double.parseDouble(atom_1[1]);
-        atom1_y = Double.parseDouble(atom_1[2]);
-        atom1_z = Double.parseDouble(atom_1[3]);
-
-        atom2_x = Double.parseDouble(atom_2[1]);
-        atom2_y = Double.parseDouble(atom_2[2]);
-        atom2_z = Double.parseDouble(atom_2[3]);
-
-        return Math.sqrt(Math.pow(atom1_x - atom2_x, 2) + Math.pow(atom1_y - atom2_y, 2) + Math.pow(atom1_z - atom2_z, 2));
+    static double[] generatePartition(Contacts residueContacts, Metrics.Run run) {
+        SplitCounts contacts;
+        try (Metrics.Phase phase = run.phase("index")) {
+            contacts = new SplitCounts(residueContacts);
+            phase.count("residues", residueContacts.size());
+        }
+        try (Metrics.Phase phase = run.phase("count")) {
+            double[] splitScores = generatePartition(contacts, residueContacts.size());
+            phase.count("splits", Math.max(residueContacts.size() - 2, 0)).count("bestSplit", bestSplit(splitScores));
+            return splitScores;
+        }
     }
 
     /**
-     * Handles splitting of residue pairs in sequence
+     * Handles splitting of residue pairs in sequence.
+     * Sums over the rows of the contacts give the number of contacts inside segment A,
+     * inside segment B and between them for every split index in constant time, without a
+     * matrix of N² entries.
+     * A split with no contacts between the segments is not scored.
+     *
+     * @param residueContacts the contacts of the chain
+     * @return the score of every split index, 0 for indices that were not scored
      */
-    private static void generatePartition() {
+    static double[] generatePartition(Contacts residueContacts) {
+        return generatePartition(new SplitCounts(residueContacts), residueContacts.size());
+    }
 
-        //added difference of segment lengths
-        int dx = 0;
+    /**
+     * Scores every split index from the split counts of the contacts
+     *
+     * @param contacts the split counts of the contacts of the chain
+     * @param n        the number of residues
+     * @return the score of every split index, 0 for indices that were not scored
+     */
+    private static double[] generatePartition(SplitCounts contacts, int n) {
+        double[] splitScores = new double[n];
 
         //Continue along the sequence staring from a minimum split index of 2.
-        while (dx + 2 < alphaCarbons.size()) {
-
-            int split_index = dx + 2; ///The length of the index at which we have split up segment A
-
-
-            //PARTITION A
-            tempScoreArray = new ArrayList<>();
-            for (int i = 0; i < split_index; i++) {
-                for (int j = 0; j < split_index; j++) {
-                    if (i != j) {
-                        extractResiduePair(i, j);
-                        INT_A = tempScoreArray.size();
-                    }
-                }
-            }
+        for (int split_index = 2; split_index < n; split_index++) {
+            long INT_A = contacts.internalBefore(split_index);
+            long INT_B = contacts.internalFrom(split_index);
+            long EXT_AB = contacts.external(split_index);
 
-
-            //PARTITION B
-            tempScoreArray = new ArrayList<>();
-            for (int i = split_index; i < alphaCarbons.size(); i++) {
-                for (int j = split_index; j < alphaCarbons.size(); j++) {
-                    if (i != j) {
-                        extractResiduePair(i, j);
-                        INT_B = tempScoreArray.size();
-                    }
-                }
-            }
-
-            //PARTITION EXT_AB
-            tempScoreArray = new ArrayList<>();
-            for (int i = 0; i < split_index; i++) {
-                for (int j = split_index; j < alphaCarbons.size(); j++) {
-                    extractResiduePair(i, j);
-                    EXT_AB = tempScoreArray.size();
-                }
+            if (EXT_AB > 0) {
+                splitScores[split_index] = ((double) INT_A / EXT_AB) * ((double) INT_B / EXT_AB);
             }
-
-            int[] scores = new int[2];
-            scores[0] = split_index;
-            scores[1] = ((INT_A / EXT_AB) * (INT_B / EXT_AB));
-            splitScores.add(scores);
-
-            dx += 1;
         }
+        return splitScores;
     }
 
     /**
-     * Helper for generateDomak()
+     * Finds the split index with the highest score
      *
-     * @param i index i from generateDomak()
-     * @param j index j from generateDomak()
+     * @param splitScores the score of every split index
+     * @return the best split index, 0 if no split was scored
      */
-    private static void extractResiduePair(int i, int j) {
-
-        if (calculateDistance(alphaCarbons.get(i), alphaCarbons.get(j)) < 8) {
-            boolean exists = false;
-            for (int[] ints : tempScoreArray) {
-                if (ints[1] == Integer.parseInt(alphaCarbons.get(i)[0])) {
-                    exists = true;
-                }
-            }
-            if (!exists) {
-                int[] row = new int[2];
-                row[0] = Integer.parseInt(alphaCarbons.get(i)[0]);
-                row[1] = Integer.parseInt(alphaCarbons.get(j)[0]);
-                tempScoreArray.add(row);
+    static int bestSplit(double[] splitScores) {
+        int max_index = 0;
+        for (int i = 0; i < splitScores.length; i++) {
+            if (splitScores[i] > splitScores[max_index]) {
+                max_index = i;
             }
-
         }
+        return max_index;
     }
 
     /**
-     * Extracts the highest score from scoreValues-array
+     * Extracts the highest score from the split scores
+     *
+     * @param splitScores the score of every split index
+     * @return a line describing the best partition
      */
-    public static void getMaxSplitValue() {
-        int maxSplitValue = 0;
-        int max_index = 0;
-        for (int i = 0; i < splitScores.size(); i++) {
-            int[] row = splitScores.get(i);
-            if (row[1] > maxSplitValue) {
-                maxSplitValue = row[1];
-                max_index = i;
-            }
-        }
-        System.out.println("Best index for partition: " + max_index + " with a max split value of : " + maxSplitValue);
+    public static String getMaxSplitValue(double[] splitScores) {
+        int max_index = bestSplit(splitScores);
+        double maxSplitValue = splitScores.length == 0 ? 0 : splitScores[max_index];
+        return "Best index for partition: " + max_index + " with a max split value of : " + maxSplitValue;
     }
 
 }
-
-
-
-
-
-
-
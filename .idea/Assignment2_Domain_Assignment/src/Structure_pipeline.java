@@ -0,0 +1,327 @@
+import structure.Arguments;
+import structure.AtomTable;
+import structure.BatchRunner;
+import structure.ChainTracer;
+import structure.Elements;
+import structure.Metrics;
+import structure.PdbReader;
+import structure.Pools;
+import structure.SelfClashes;
+import structure.SparseContacts;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Program which runs the analyses of a structure on a single parse of its file: the alpha-carbon
+ * contacts within 8Å are found once and shared by the pair export and the split scan, and the
+ * chain ordering and the clash check work on the same atoms. No state is kept between structures,
+ * so several can be in flight in one JVM.
+ *
+ * How to run:
+ *  1. Run the command line: javac -d out -sourcepath .:../../Structure_Common/src Structure_pipeline.java
+ *  and then java -cp out Structure_pipeline [--threads N] file.pdb
+ *  which writes, with the first free name of residue, residue1, ...:
+ *  residue.pairs   the pairs of alpha-carbons in contact, as Distance_map_generator writes them
+ *  residue.split   the best partition into two domains, as Single_segment_scan prints it
+ *  residue.order   the order of the alpha-carbons along the chain, as MainChainTracing prints it
+ *  residue.clashes the clashes between atoms of the structure, as Steric_Overlap --self writes them
+ *  The ordering and the clash check start as soon as the file is parsed, the export and the scan as soon as the
+ *  contacts are found, and all four run at the same time. If one of them fails, the others still running are
+ *  cancelled before they write their file, and the structure is reported failed.
+ *  mmCIF and BinaryCIF files, and files compressed with gzip or zstd, are read as well.
+ *  --threads N computes the contacts and clashes on N threads (0 for all processors), the output is the same
+ *  --binary writes the binary contact map format (.cmap) instead of text pairs
+ *  --vdw gives every atom the van der Waals radius of its element in the clash check instead of 2Å
+ *  --allowed-overlap A the overlap in Å two atoms may have without clashing (default 0.4)
+ *  --batch dir|manifest [--out dir] [--jobs N] instead writes dir/name.pairs, name.split, name.order and
+ *  name.clashes for every structure file of a directory or manifest, N files at a time, and a summary.tsv of all files
+ *  --metrics file.json writes the time, allocation and counters of every phase: parse and pairs in the run
+ *  of the file, and each stage in a run of its own, e.g. "1cdh.pdb (clashes)", as the stages overlap in time
+ */
+public class Structure_pipeline {
+
+    /**
+     * Radius of every atom in Å in the clash check without --vdw, the radius Steric_Overlap uses
+     */
+    static final double ATOM_RADIUS = 2;
+
+    /**
+     * The options of a run, the same for every structure
+     */
+    private static final class Options {
+        final boolean binary;
+        final boolean vdw;
+        final double allowedOverlap;
+
+        Options(boolean binary, boolean vdw, double allowedOverlap) {
+            this.binary = binary;
+            this.vdw = vdw;
+            this.allowedOverlap = allowedOverlap;
+        }
+
+        String pairsExtension() {
+            return binary ? ".cmap" : ".pairs";
+        }
+    }
+
+    public static void main(String[] args) {
+
+        Arguments arguments = new Arguments(args, "--threads", "--batch", "--out", "--jobs", "--metrics", "--allowed-overlap");
+        if (arguments.files().isEmpty() && !arguments.has("--batch")) {
+            System.err.println("File argument missing. First, run command line: javac Structure_pipeline.java and then java Structure_pipeline [--threads N] file.pdb");
+            System.exit(0);
+        }
+        Options options = new Options(arguments.has("--binary"), arguments.has("--vdw"),
+                arguments.doubleValue("--allowed-overlap", SelfClashes.DEFAULT_ALLOWED_OVERLAP));
+        ForkJoinPool pool = Pools.of(arguments.intValue("--threads", 1));
+        // The stages only wait for the parse and the contacts, never for each other
+        ExecutorService stages = Executors.newCachedThreadPool();
+        Metrics metrics = new Metrics("Structure_pipeline");
+        try {
+            if (arguments.has("--batch")) {
+                BatchRunner batch = new BatchRunner(1, options.pairsExtension(), arguments.intValue("--jobs", 0));
+                int failed = batch.run(Paths.get(arguments.value("--batch", "")), Paths.get(arguments.value("--out", "pipeline")),
+                        (inputs, output) -> processFile(inputs[0], output, options, stages, pool, metrics));
+                if (failed > 0) {
+                    System.err.println(failed + " file(s) failed, see summary.tsv");
+                }
+            } else {
+                processFile(Paths.get(arguments.files().get(0)), nextOutputFile(options.pairsExtension()), options, stages, pool, metrics);
+            }
+            if (arguments.has("--metrics")) {
+                metrics.writeJson(Paths.get(arguments.value("--metrics", "")));
+            }
+        } catch (NoSuchFileException e) {
+            System.out.println("Error: Could not find file.");
+            e.printStackTrace();
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+        } finally {
+            stages.shutdown();
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Parses a structure file once and runs every stage on it
+     *
+     * @param input   the structure file
+     * @param output  the file to write the pairs to; the other results go next to it, with the
+     *                extensions .split, .order and .clashes
+     * @param options the options of the run
+     * @param stages  the executor to run the stages on
+     * @param pool    pool to compute the contacts and clashes on, or null for a single thread
+     * @param metrics the metrics to record the phases in, a run for the file and one for every stage
+     * @return the number of atoms, contacts and clashes and the best split
+     * @throws IOException if the file cannot be read or a result cannot be written
+     */
+    static BatchRunner.Result processFile(Path input, Path output, Options options, ExecutorService stages,
+                                          ForkJoinPool pool, Metrics metrics) throws IOException {
+        Metrics.Run run = metrics.run(input.toString());
+        AtomTable atoms;
+        AtomTable alphaCarbons = new AtomTable();
+        try (Metrics.Phase phase = run.phase("parse")) {
+            atoms = PdbReader.allAtoms().read(input, PdbReader.alphaCarbons(), alphaCarbons);
+            phase.count("atoms", atoms.size()).count("alphaCarbons", alphaCarbons.size());
+        }
+        Metrics.Run clashRun = metrics.run(input + " (clashes)");
+        Metrics.Run traceRun = metrics.run(input + " (trace)");
+        Future<SelfClashes> clashes = stages.submit(() -> checkClashes(atoms, sibling(output, ".clashes"), options, pool, clashRun));
+        Future<int[]> order = stages.submit(() -> traceChain(alphaCarbons, sibling(output, ".order"), traceRun));
+        Future<Long> export = null;
+        Future<double[]> split = null;
+        try {
+            SparseContacts contacts;
+            try (Metrics.Phase phase = run.phase("pairs")) {
+                contacts = SparseContacts.of(alphaCarbons, Distance_map_generator.CUTOFF, pool);
+                phase.count("pairsTested", contacts.comparisons()).count("contacts", contacts.count());
+            }
+            Metrics.Run writeRun = metrics.run(input + " (write)");
+            Metrics.Run splitRun = metrics.run(input + " (split)");
+            export = stages.submit(() -> exportPairs(contacts, output, options, pool, writeRun));
+            split = stages.submit(() -> scanSplits(contacts, sibling(output, ".split"), splitRun));
+
+            BatchRunner.Result result = new BatchRunner.Result();
+            result.atoms = atoms.size();
+            result.contacts = contacts.count();
+            join(export);
+            result.bestSplit = Single_segment_scan.bestSplit(join(split));
+            join(order);
+            result.clashes = join(clashes).size();
+            return result;
+        } finally {
+            // Stops the stages still running when another failed; finished ones are not affected
+            cancel(clashes, order, export, split);
+        }
+    }
+
+    /**
+     * Writes the pairs in contact, as Distance_map_generator does
+     *
+     * @return the number of bytes written
+     */
+    private static long exportPairs(SparseContacts contacts, Path file, Options options, ForkJoinPool pool, Metrics.Run run) throws IOException {
+        try (Metrics.Phase phase = run.phase("write")) {
+            checkCancelled();
+            Distance_map_generator.generateResidueFile(contacts, file.toFile(), options.binary, pool);
+            long bytes = Files.size(file);
+            phase.count("bytes", bytes);
+            return bytes;
+        }
+    }
+
+    /**
+     * Scores every split of the chain, as Single_segment_scan does, and writes the best
+     *
+     * @return the score of every split index
+     */
+    private static double[] scanSplits(SparseContacts contacts, Path file, Metrics.Run run) throws IOException {
+        double[] splitScores = Single_segment_scan.generatePartition(contacts, run);
+        checkCancelled();
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.append(Single_segment_scan.getMaxSplitValue(splitScores));
+            writer.newLine();
+        }
+        return splitScores;
+    }
+
+    /**
+     * Orders the alpha-carbons along the chain with a {@link ChainTracer} and writes the order
+     * the way MainChainTracing prints it
+     *
+     * @return index of the atom removed at every step, ChainTracer.NO_ENDPOINT if none was found
+     */
+    private static int[] traceChain(AtomTable alphaCarbons, Path file, Metrics.Run run) throws IOException {
+        try (Metrics.Phase phase = run.phase("trace")) {
+            int[] order = new ChainTracer(alphaCarbons).order();
+            checkCancelled();
+            try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+                writer.append("Order of alpha-carbon atoms: ");
+                writer.newLine();
+                for (int atom : order) {
+                    writer.append(atom == ChainTracer.NO_ENDPOINT ? "null" : String.valueOf(alphaCarbons.serial(atom)));
+                    writer.newLine();
+                }
+                writer.append("Total number of alpha-carbon atoms: ").append(String.valueOf(order.length));
+                writer.newLine();
+            }
+            phase.count("steps", order.length);
+            return order;
+        }
+    }
+
+    /**
+     * Finds the clashes between atoms of the structure and writes them, as Steric_Overlap --self does
+     */
+    private static SelfClashes checkClashes(AtomTable atoms, Path file, Options options, ForkJoinPool pool, Metrics.Run run) throws IOException {
+        try (Metrics.Phase phase = run.phase("clashes")) {
+            double[] radii;
+            if (options.vdw) {
+                radii = Elements.radii(atoms);
+            } else {
+                radii = new double[atoms.size()];
+                Arrays.fill(radii, ATOM_RADIUS);
+            }
+            SelfClashes clashes = SelfClashes.find(atoms, radii, options.allowedOverlap, pool);
+            checkCancelled();
+            clashes.write(file);
+            phase.count("comparisons", clashes.comparisons()).count("clashes", clashes.size());
+            return clashes;
+        }
+    }
+
+    /**
+     * Cancels the stages not finished yet, interrupting the running ones
+     *
+     * @param stages the stages, null for one not submitted
+     */
+    private static void cancel(Future<?>... stages) {
+        for (Future<?> stage : stages) {
+            if (stage != null) {
+                stage.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Stops a stage cancelled because another one failed before it writes its result
+     *
+     * @throws InterruptedIOException if the stage was cancelled
+     */
+    private static void checkCancelled() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Cancelled after another stage failed");
+        }
+    }
+
+    /**
+     * Waits for a stage to finish
+     *
+     * @return the result of the stage
+     * @throws IOException as thrown by the stage
+     */
+    private static <T> T join(Future<T> stage) throws IOException {
+        try {
+            return stage.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * @return the file next to the pairs file with another extension, e.g. residue.split for residue.pairs
+     */
+    private static Path sibling(Path pairsFile, String extension) {
+        String name = pairsFile.getFileName().toString();
+        return pairsFile.resolveSibling(name.substring(0, name.lastIndexOf('.')) + extension);
+    }
+
+    /**
+     * Finds the first of residue, residue1, residue2, ... for which none of the results exist yet
+     *
+     * @param extension the extension of the pairs file, ".pairs" or ".cmap"
+     * @return the pairs file
+     */
+    private static Path nextOutputFile(String extension) {
+        int fileNumber = 0;
+        Path outputFile = Paths.get("residue" + extension);
+        while (exists(outputFile)) {
+            fileNumber++;
+            outputFile = Paths.get("residue" + fileNumber + extension);
+        }
+        return outputFile;
+    }
+
+    private static boolean exists(Path pairsFile) {
+        for (String extension : new String[]{".split", ".order", ".clashes"}) {
+            if (Files.exists(sibling(pairsFile, extension))) {
+                return true;
+            }
+        }
+        return Files.exists(pairsFile);
+    }
+}
@@ -1,135 +1,74 @@
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.List;
+import structure.Arguments;
+import structure.AtomTable;
+import structure.Metrics;
+import structure.NearestNeighbourPath;
+import structure.PdbReader;
+import structure.Pools;
+
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
 
 /*
 
 	Author: Jackson Isack - 19900710-7510
-	To compile run: javac residue_atom_ordering.java
-	To run with standard output: java residue_atom_ordering p3.pdb > output.txt
+	To compile run: javac -d out -sourcepath .:../../Structure_Common/src residue_atom_ordering.java
+	To run with standard output: java -cp out residue_atom_ordering [--starts K] [--threads N] [--metrics file.json] p3.txt > output.txt
+
+	Orders the atoms by always stepping to the nearest atom not visited yet. The nearest atom is
+	looked up in a k-d tree (see NearestNeighbourPath). The path starts in the middle of the input;
+	--starts K tries K starting atoms spread over the input and prints the shortest path,
+	--threads N walks them on N threads (0 for all processors).
+	--metrics file.json writes the time, allocation and counters of every phase (parse, index, trace, write).
+	The file may be compressed with gzip or zstd (e.g. p3.txt.gz).
 
 */
 
 public class residue_atom_ordering{
 
-    private static class Point{
-        public double x, y, z;
-        public Point(double x,double y,double z){
-            this.x=x; this.y=y; this.z=z;
-        }
-
-    }
-
-    private static class Atom{
-        public String name;
-        public Point	position;
-        public Atom(String name, Point p){
-            this.name=name; this.position=p;
-        }
-
-    }
-
-    private static String strLine;
-
-    //calculates the square of the value
-    private static double square (double a) {
-        return a*a;
-    }
-
-    // calculates the distance btn atoms
-    private static double distance (Point a, Point b) {
-        return Math.sqrt(square(a.x - b.x) + square(a.y - b.y) + square(a.z - b.z));
-    }
-
-    //checks if the value already exists in a list
-    private static boolean value_exists(int value, int[] list) {
-
-        int size=list.length;
-
-        for (int i=0; i < list.length; i++) {
-            if (value == list[i]) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    // finds and return the next nearest atom in the atomMatrix list
-    private static int next_nearest_atom(int i, int[] orderedAtomList, List<Atom> atomMatrix) {
-
-        double shortest=1000;  // initial max value
-        int shortest_index=0;  // initial index value
-
-        for (int j=0; j < orderedAtomList.length; j++){
-
-            if(i != j && value_exists(j, orderedAtomList) == false){
-
-                double distance = distance(atomMatrix.get(i).position, atomMatrix.get(j).position) - 3.8;
-
-                if (shortest > distance){
-
-                    shortest=distance;
-                    shortest_index=j;
-
-                }
-
-            }else{
-                continue;
-            }
-
-        }
-
-        return shortest_index;
-    }
-
     public static void main(String[] args) throws Exception{
 
-        if(args.length==0){
-            System.err.println("usage: java make_distance_map file.pdb");
+        Arguments arguments = new Arguments(args, "--starts", "--threads", "--metrics");
+        if(arguments.files().isEmpty()){
+            System.err.println("usage: java residue_atom_ordering [--starts K] [--threads N] [--metrics file.json] file.txt");
             System.exit(0);
         }
 
-        FileInputStream fstream = new FileInputStream(args[0]);
-        BufferedReader br = new BufferedReader(new InputStreamReader(fstream));
-
-        List<Atom> atomMatrix = new ArrayList<Atom>();
-
-        while ((strLine = br.readLine()) != null)   {
-
-                String[] splited = strLine.split("\\s+");
-
-
-                    Point p = new Point(Double.parseDouble(splited[2]),Double.parseDouble(splited[2]),Double.parseDouble(splited[4]));
-
-                    Atom atom = new Atom(splited[1],p); // Atom(name,point);
-                    atomMatrix.add(atom);
-
-
+        Metrics metrics = new Metrics("residue_atom_ordering");
+        Metrics.Run run = metrics.run(arguments.files().get(0));
+        AtomTable atoms;
+        try (Metrics.Phase phase = run.phase("parse")) {
+            atoms = PdbReader.readCoordinateList(Paths.get(arguments.files().get(0)));
+            phase.count("atoms", atoms.size());
         }
+        if (atoms.size() > 0) {
+            NearestNeighbourPath ordering;
+            try (Metrics.Phase phase = run.phase("index")) {
+                ordering = new NearestNeighbourPath(atoms);
+            }
+            int[] starts = ordering.starts(arguments.intValue("--starts", 1));
+            ForkJoinPool pool = Pools.of(arguments.intValue("--threads", 1));
+            int[] orderedAtomList;
+            try (Metrics.Phase phase = run.phase("trace")) {
+                orderedAtomList = ordering.shortest(starts, pool);
+                phase.count("starts", starts.length);
+            } finally {
+                if (pool != null) {
+                    pool.shutdown();
+                }
+            }
 
-        int numAtoms=atomMatrix.size();
-        int starting_index=numAtoms/2; //sets starting value. can be altered to find perfect solution
-
-        // initialize the orderedAtomlist
-        int[] orderedAtomList = new int[numAtoms];
-        orderedAtomList[0] = Integer.parseInt(atomMatrix.get(starting_index).name);
+            try (Metrics.Phase phase = run.phase("write")) {
+                for (int i=0; i < orderedAtomList.length; i++) {
 
-        for (int i=1; i < numAtoms; i++) {
-            //populates orderedAtomList on each iteration
-            orderedAtomList[i] = next_nearest_atom (orderedAtomList[i-1], orderedAtomList, atomMatrix);
+                    System.out.println(atoms.serial(orderedAtomList[i]));
 
+                }
+            }
         }
-
-        for (int i=0; i < numAtoms; i++) {
-
-            System.out.println(atomMatrix.get(orderedAtomList[i]).name);
-
+        if (arguments.has("--metrics")) {
+            metrics.writeJson(Paths.get(arguments.value("--metrics", "")));
         }
 
-        br.close();
-
     }
 
-}
\ No newline at end of file
+}
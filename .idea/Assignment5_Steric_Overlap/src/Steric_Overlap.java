@@ -1,154 +1,770 @@
+import structure.Arguments;
+import structure.AtomStore;
+import structure.AtomTable;
+import structure.Atoms;
+import structure.BatchRunner;
+import structure.ClashIndex;
+import structure.Elements;
+import structure.LongList;
+import structure.Metrics;
+import structure.PdbReader;
+import structure.PipelinedWriter;
+import structure.Pools;
+import structure.PoseScorer;
+import structure.PairSet;
+import structure.SelfClashes;
+import structure.VerletList;
+
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Program that detects steric overlap between two sets of spheres.
  * By Lenia Malki
  * <p>
  * How to run:
- * 1. Run cmd-line: javac main.java
- * 2. Run cmd-line java Steric_Overlap file1.pdb file2.pdb
- * where file1.pdb and file2.pdb refers to respective filename or path.
+ * 1. Run cmd-line: javac -d out -sourcepath .:../../Structure_Common/src Steric_Overlap.java
+ * 2. Run cmd-line java -cp out Steric_Overlap [--threads N] file1.pdb file2.pdb
+ * where file1.pdb and file2.pdb refers to respective filename or path. mmCIF (.cif, .mmcif) and BinaryCIF (.bcif)
+ * files are read as well, e.g. assemblies too large for the PDB format; their models are the entries of a screen.
+ * Files compressed with gzip or zstd (e.g. file.pdb.gz) are decompressed while they are read.
+ * --threads N checks the atoms of file 2 on N threads (0 for all processors), the output is the same.
+ * --vdw gives every atom the van der Waals radius of its element (from columns 77-78, or inferred from the
+ * atom name) instead of the same radius of 2Å, and finds the clashes with a sort-and-sweep broadphase.
+ * --batch manifest [--out dir] [--jobs N] instead checks every pair of files listed in the manifest
+ * (two paths per line), N pairs at a time, writing dir/name1_name2.overlaps.txt and a summary.tsv of all pairs;
+ * it cannot be combined with --screen, --poses, --frames or --self
+ * --screen receptor.pdb ligands... [--out file] screens ligands against one receptor: the receptor is indexed
+ * once, and every ligand file (or directory of them) is streamed through it, each entry of a multi-entry file
+ * (entries ending with END or ENDMDL) as its own ligand. The clashes of every ligand are written to
+ * screen.txt (or file) as soon as it is checked, while the next ligands are read on a separate thread.
+ * --poses poses.txt [--budget B] [--out file] receptor.pdb ligand.pdb scores rigid placements of the ligand against
+ * the receptor: every line of poses.txt holds a pose as 12 numbers, a row-major rotation matrix and a translation.
+ * The number of clashing ligand atoms of every pose is written to scores.txt (or file); a pose stops being
+ * scored once it has more than B clashes and is written as >B.
+ * --frames [--skin S] file1.pdb file2.pdb follows the clashes through the models (MODEL/ENDMDL) of a trajectory:
+ * model k of file 2 is checked against model k of file 1, or against its only model. The number of clashing atoms
+ * of file 2 in every model is written to frames.txt. The atom pairs within the contact distance plus a skin of S Å
+ * (default 2) are kept between models, and only the atoms that moved more than S/2 are searched again.
+ * --self [--allowed-overlap A] file.pdb finds the clashes within one structure, e.g. a model after refinement,
+ * and writes both atoms of every clash with their distance to selfclashes.txt. Two atoms clash when they overlap
+ * by more than A Å (default 0.4); bonded atoms and atoms bonded to the same atom are not clashes. Bonds are
+ * found from the covalent radii of the elements within a residue, along the backbone links of neighbouring
+ * residues and between hetero groups. --vdw and --threads apply as above.
+ * --off-heap keeps the atoms of the files off the Java heap, 28 bytes per atom with coordinates as floats, for
+ * assemblies of millions of atoms; --store dir maps them from a scratch file in dir instead, which the operating
+ * system can page out. Both apply to file1.pdb file2.pdb, --batch and --self.
+ * --metrics file.json writes the time, allocation and counters of every phase (parse, index, pairs, count, write);
+ * a screen or pose run records the checks of all ligands or poses, with the report written as they go, as one pairs phase.
  */
 public class Steric_Overlap {
 
-    static private final ArrayList<Atom> atom_file_1 = new ArrayList<>();
-    static private final ArrayList<Atom> atom_file_2 = new ArrayList<>();
-    static private final ArrayList<Atom> overlaps = new ArrayList<>();
     static final int atom_radius = 2;
-    private static int comparisons;
+    /**
+     * Number of ligands read ahead of the clash checks, which bounds the memory of a screen
+     */
+    private static final int LIGAND_QUEUE = 64;
+    /**
+     * Number of poses read and scored at a time
+     */
+    private static final int POSE_CHUNK = 65536;
+    /**
+     * Skin of the neighbour list kept between models in Å
+     */
+    private static final double DEFAULT_SKIN = 2;
+    /**
+     * Most bytes of a line of the overlaps file: a serial, a residue number and two names
+     */
+    private static final int OVERLAP_LINE_BYTES = 64;
 
     public static void main(String[] args) {
 
-        if (args.length == 0) {
+        Arguments arguments = new Arguments(args, "--threads", "--batch", "--out", "--jobs", "--poses", "--budget", "--metrics", "--skin", "--allowed-overlap", "--store");
+        if (arguments.files().size() < (arguments.has("--self") ? 1 : 2) && !arguments.has("--batch")) {
             System.err.println("File arguments missing");
             System.exit(0);
         }
+        for (String mode : new String[]{"--frames", "--poses", "--screen", "--self"}) {
+            if (arguments.has("--batch") && arguments.has(mode)) {
+                System.err.println("--batch cannot be combined with " + mode + ", which runs on the files given on the command line");
+                System.exit(0);
+            }
+        }
+        ForkJoinPool pool = Pools.of(arguments.intValue("--threads", 1));
+        boolean vdw = arguments.has("--vdw");
+        Metrics metrics = new Metrics("Steric_Overlap");
+        Loader loader = loader(arguments);
         try {
-            FileInputStream file1 = new FileInputStream(args[0]);
-            FileInputStream file2 = new FileInputStream(args[1]);
+            if (arguments.has("--batch")) {
+                BatchRunner batch = new BatchRunner(2, ".overlaps.txt", arguments.intValue("--jobs", 0));
+                int failed = batch.run(Paths.get(arguments.value("--batch", "")), Paths.get(arguments.value("--out", "overlaps")),
+                        (inputs, output) -> processFiles(inputs[0], inputs[1], output.toFile(), vdw, loader, pool, metrics));
+                if (failed > 0) {
+                    System.err.println(failed + " pair(s) failed, see summary.tsv");
+                }
+            } else if (arguments.has("--poses")) {
+                File outputFile = arguments.has("--out") ? new File(arguments.value("--out", "")) : nextOutputFile("scores");
+                scorePoses(Paths.get(arguments.files().get(0)), Paths.get(arguments.files().get(1)), Paths.get(arguments.value("--poses", "")),
+                        arguments.intValue("--budget", PoseScorer.NO_BUDGET), outputFile, vdw, pool, metrics);
+            } else if (arguments.has("--self")) {
+                processSelf(Paths.get(arguments.files().get(0)), nextOutputFile("selfclashes"), vdw,
+                        arguments.doubleValue("--allowed-overlap", SelfClashes.DEFAULT_ALLOWED_OVERLAP), loader, pool, metrics);
+            } else if (arguments.has("--frames")) {
+                processFrames(Paths.get(arguments.files().get(0)), Paths.get(arguments.files().get(1)), nextOutputFile("frames"),
+                        vdw, arguments.doubleValue("--skin", DEFAULT_SKIN), metrics);
+            } else if (arguments.has("--screen")) {
+                List<String> files = arguments.files();
+                List<Path> ligandFiles = new ArrayList<>();
+                for (String file : files.subList(1, files.size())) {
+                    Path path = Paths.get(file);
+                    if (Files.isDirectory(path)) {
+                        ligandFiles.addAll(BatchRunner.structureFiles(path));
+                    } else {
+                        ligandFiles.add(path);
+                    }
+                }
+                File outputFile = arguments.has("--out") ? new File(arguments.value("--out", "")) : nextOutputFile("screen");
+                screen(Paths.get(files.get(0)), ligandFiles, outputFile, vdw, pool, metrics);
+            } else {
+                processFiles(Paths.get(arguments.files().get(0)), Paths.get(arguments.files().get(1)), nextOutputFile("overlaps"), vdw, loader, pool, metrics);
+            }
+            if (arguments.has("--metrics")) {
+                metrics.writeJson(Paths.get(arguments.value("--metrics", "")));
+            }
+        } catch (NoSuchFileException e) {
+            System.out.println("Error: Could not find file.");
+            e.printStackTrace();
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
 
-            Scanner scanner1 = new Scanner(file1);
-            Scanner scanner2 = new Scanner(file2);
+    /**
+     * Reads the atoms of a structure file
+     */
+    private interface Loader {
+        Atoms load(Path file) throws IOException;
+    }
 
-            while (scanner1.hasNextLine()) {
-                parseData(scanner1.nextLine(), atom_file_1);
-            }
+    /**
+     * @return a loader into an AtomTable, or with --off-heap or --store into an AtomStore
+     */
+    private static Loader loader(Arguments arguments) {
+        if (arguments.has("--store")) {
+            Path directory = Paths.get(arguments.value("--store", ""));
+            return file -> {
+                Path storeFile = Files.createTempFile(directory, file.getFileName().toString(), ".atoms");
+                storeFile.toFile().deleteOnExit();
+                AtomStore store = AtomStore.map(storeFile);
+                PdbReader.allAtoms().read(file, store);
+                return store;
+            };
+        }
+        if (arguments.has("--off-heap")) {
+            return file -> {
+                AtomStore store = AtomStore.allocate();
+                PdbReader.allAtoms().read(file, store);
+                return store;
+            };
+        }
+        return file -> PdbReader.allAtoms().read(file);
+    }
 
-            while (scanner2.hasNextLine()) {
-                parseData(scanner2.nextLine(), atom_file_2);
-            }
+    /**
+     * Finds the atoms of file 2 overlapping an atom of file 1 and writes them to a file
+     *
+     * @param file1      the first PDB file
+     * @param file2      the second PDB file
+     * @param outputFile the file to write the overlaps to
+     * @param vdw        true for the van der Waals radii of the elements, false for atom_radius
+     * @param loader     reads the atoms of a file
+     * @param pool       pool to check the atoms on, or null for a single thread
+     * @param metrics    the metrics to record the phases in
+     * @return the number of atoms and clashes found
+     * @throws IOException if a PDB file cannot be read or the overlaps cannot be written
+     */
+    static BatchRunner.Result processFiles(Path file1, Path file2, File outputFile, boolean vdw, Loader loader, ForkJoinPool pool, Metrics metrics) throws IOException {
+        Metrics.Run run = metrics.run(file1 + " " + file2);
+        Atoms atom_file_1;
+        Atoms atom_file_2;
+        try (Metrics.Phase phase = run.phase("parse")) {
+            atom_file_1 = loader.load(file1);
+            atom_file_2 = loader.load(file2);
+            phase.count("atoms1", atom_file_1.size()).count("atoms2", atom_file_2.size());
+        }
+        ClashIndex index;
+        try (Metrics.Phase phase = run.phase("index")) {
+            index = index(atom_file_1, vdw);
+        }
+        long[] clashing = new long[(atom_file_2.size() + 63) / 64];
+        long comparisons;
+        try (Metrics.Phase phase = run.phase("pairs")) {
+            comparisons = findOverlaps(index, atom_file_2, clashing, pool);
+            phase.count("comparisons", comparisons);
+        }
+        int[] overlaps;
+        try (Metrics.Phase phase = run.phase("count")) {
+            overlaps = sort(atom_file_2, BitSet.valueOf(clashing));
+            phase.count("clashes", overlaps.length);
+        }
+        try (Metrics.Phase phase = run.phase("write")) {
+            generateOverlapsFile(outputFile, atom_file_2, overlaps, comparisons);
+        }
 
-            comparisons = findOverlaps();
-            sort();
-            generateOverlapsFile();
+        BatchRunner.Result result = new BatchRunner.Result();
+        result.atoms = atom_file_1.size() + atom_file_2.size();
+        result.clashes = overlaps.length;
+        return result;
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Indexes the atoms of file 1 for clash checks
+     *
+     * @param vdw true for the van der Waals radii of the elements, false for atom_radius
+     */
+    private static ClashIndex index(Atoms atom_file_1, boolean vdw) {
+        return vdw ? ClashIndex.vdw(atom_file_1) : ClashIndex.uniform(atom_file_1, atom_radius);
+    }
+
+    /**
+     * Reads and indexes the receptor of a screen or pose run
+     */
+    private static ClashIndex readIndex(Path receptor, boolean vdw, Metrics.Run run) throws IOException {
+        AtomTable receptorAtoms;
+        try (Metrics.Phase phase = run.phase("parse")) {
+            receptorAtoms = PdbReader.allAtoms().read(receptor);
+            phase.count("atoms", receptorAtoms.size());
+        }
+        try (Metrics.Phase phase = run.phase("index")) {
+            return index(receptorAtoms, vdw);
         }
     }
 
     /**
-     * Method for reformatting input text
+     * Finds steric overlaps between two sets of spheres.
+     * A cell grid with cells of one atom diameter is built over file 1, so every atom of file 2
+     * is only compared to the atoms in the 27 cells around it, and the search for an atom stops
+     * at its first clash.
      *
-     * @param nextLine next line of input data
+     * @param atom_file_1 the atoms of file 1
+     * @param atom_file_2 the atoms of file 2
+     * @param clashing    bitset words, the bit of every atom of file 2 that clashes is set
+     * @param pool        pool to check the atoms of file 2 on, or null for a single thread
+     * @return the number of comparisons made
      */
-    private static void parseData(String nextLine, ArrayList<Atom> list) {
-        String[] temp = nextLine.split("\\s+");
-        if (temp[0].equals("ATOM") || temp[0].equals("HETATM")) {
-            double[] residue_line = {Double.parseDouble(temp[6]), Double.parseDouble(temp[7]), Double.parseDouble(temp[8])};
-            Atom atom = new Atom();
-            atom.atom_number = Integer.parseInt(temp[1]);
-            atom.acid = temp[3];
-            atom.b = Integer.parseInt(temp[5]);
-            atom.c = temp[2];
-            atom.coordinates = residue_line;
-            list.add(atom);
+    static long findOverlaps(AtomTable atom_file_1, AtomTable atom_file_2, long[] clashing, ForkJoinPool pool) {
+        return findOverlaps(ClashIndex.uniform(atom_file_1, atom_radius), atom_file_2, clashing, pool);
+    }
+
+    /**
+     * Finds steric overlaps between two sets of atoms with the van der Waals radii of their elements.
+     * The atoms of file 1 are sorted along one axis, so every atom of file 2 is only compared to
+     * the atoms whose extent along that axis overlaps its own, and the search for an atom stops
+     * at its first clash.
+     *
+     * @param atom_file_1 the atoms of file 1
+     * @param atom_file_2 the atoms of file 2
+     * @param clashing    bitset words, the bit of every atom of file 2 that clashes is set
+     * @param pool        pool to check the atoms of file 2 on, or null for a single thread
+     * @return the number of comparisons made
+     */
+    static long findVdwOverlaps(AtomTable atom_file_1, AtomTable atom_file_2, long[] clashing, ForkJoinPool pool) {
+        return findOverlaps(ClashIndex.vdw(atom_file_1), atom_file_2, clashing, pool);
+    }
+
+    /**
+     * Finds steric overlaps against atoms that are already indexed, e.g. a receptor checked
+     * against many ligands
+     */
+    private static long findOverlaps(ClashIndex index, Atoms atom_file_2, long[] clashing, ForkJoinPool pool) {
+        double[] radii_2 = index.radii(atom_file_2);
+        if (pool == null) {
+            return check(index, atom_file_2, radii_2, clashing, 0, atom_file_2.size());
         }
+        return pool.invoke(new ClashTask(index, atom_file_2, radii_2, clashing, 0, atom_file_2.size()));
     }
 
     /**
-     * Class for an atom to keep track of its name and coordinates
+     * Checks the atoms from to to of file 2 and sets the bits of the clashing ones
+     *
+     * @return the number of comparisons made
      */
-    private static class Atom {
-        int atom_number;
-        String acid;
-        int b;
-        String c;
-        double[] coordinates;
+    private static long check(ClashIndex index, Atoms atom_file_2, double[] radii_2, long[] words, int from, int to) {
+        ClashIndex.Search search = index.search();
+        for (int atom_2 = from; atom_2 < to; atom_2++) {
+            if (search.clashes(atom_file_2.x(atom_2), atom_file_2.y(atom_2), atom_file_2.z(atom_2), radii_2[atom_2])) {
+                words[atom_2 >>> 6] |= 1L << atom_2;
+            }
+        }
+        return search.comparisons();
+    }
+
+    /**
+     * Checks a range of the atoms of file 2. Ranges are split at multiples of 64 atoms,
+     * so every task writes its own words of the clash bitset.
+     */
+    private static final class ClashTask extends RecursiveTask<Long> {
+        private static final int GRAIN = 4096;
+        private final ClashIndex index;
+        private final Atoms atom_file_2;
+        private final double[] radii_2;
+        private final long[] words;
+        private final int from, to;
+
+        ClashTask(ClashIndex index, Atoms atom_file_2, double[] radii_2, long[] words, int from, int to) {
+            this.index = index;
+            this.atom_file_2 = atom_file_2;
+            this.radii_2 = radii_2;
+            this.words = words;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from > GRAIN) {
+                int middle = ((from + to) >>> 1) & ~63;
+                ClashTask right = new ClashTask(index, atom_file_2, radii_2, words, middle, to);
+                right.fork();
+                long left = new ClashTask(index, atom_file_2, radii_2, words, from, middle).compute();
+                return left + right.join();
+            }
+            return check(index, atom_file_2, radii_2, words, from, to);
+        }
+    }
+
+    /**
+     * Finds the clashes within one structure and writes both atoms of every clash with their distance
+     *
+     * @param file           the PDB file
+     * @param outputFile     the file to write the clashes to
+     * @param vdw            true for the van der Waals radii of the elements, false for atom_radius
+     * @param allowedOverlap the overlap in Å two atoms may have without clashing
+     * @param loader         reads the atoms of the file
+     * @param pool           pool to find the clashes on, or null for a single thread
+     * @param metrics        the metrics to record the phases in
+     * @throws IOException if the PDB file cannot be read or the clashes cannot be written
+     */
+    static void processSelf(Path file, File outputFile, boolean vdw, double allowedOverlap, Loader loader, ForkJoinPool pool, Metrics metrics) throws IOException {
+        Metrics.Run run = metrics.run(file.toString());
+        Atoms atoms;
+        try (Metrics.Phase phase = run.phase("parse")) {
+            atoms = loader.load(file);
+            phase.count("atoms", atoms.size());
+        }
+        SelfClashes clashes;
+        try (Metrics.Phase phase = run.phase("pairs")) {
+            double[] radii = vdw ? Elements.radii(atoms) : uniformRadii(atoms.size());
+            clashes = SelfClashes.find(atoms, radii, allowedOverlap, pool);
+            phase.count("comparisons", clashes.comparisons()).count("bonds", clashes.bonds())
+                    .count("excluded", clashes.excluded()).count("clashes", clashes.size());
+        }
+        try (Metrics.Phase phase = run.phase("write")) {
+            clashes.write(outputFile.toPath());
+        }
+    }
+
+    private static double[] uniformRadii(int n) {
+        double[] radii = new double[n];
+        Arrays.fill(radii, atom_radius);
+        return radii;
     }
 
     /**
-     * Calculates the distance between two residues
+     * Follows the clashes between two trajectories through their models and writes the number of
+     * clashing atoms of file 2 in every model. Both files are read at the same time, file 1 on a
+     * separate thread; a file 1 of one model is checked against every model of file 2.
      *
-     * @param a1 CA-atom 1
-     * @param a2 CA-atom 2
-     * @return the calculation
+     * @param file1      the first PDB file, models separated by ENDMDL (or END)
+     * @param file2      the second PDB file, models separated by ENDMDL (or END)
+     * @param outputFile the file to write the clashes of every model to
+     * @param vdw        true for the van der Waals radii of the elements, false for atom_radius
+     * @param skin       the skin of the neighbour list in Å
+     * @param metrics    the metrics to record the phases in
+     * @throws IOException if a file cannot be read, the models do not match or the report cannot be written
      */
-    private static double calculateDistance(Atom a1, Atom a2) {
-        double atom1_x = a1.coordinates[0];
-        double atom1_y = a1.coordinates[1];
-        double atom1_z = a1.coordinates[2];
+    static void processFrames(Path file1, Path file2, File outputFile, boolean vdw, double skin, Metrics metrics) throws IOException, InterruptedException {
+        Metrics.Run run = metrics.run(file1 + " " + file2);
+        BlockingQueue<Ligand> models1 = new ArrayBlockingQueue<>(LIGAND_QUEUE);
+        Thread reader = new Thread(() -> readLigands(List.of(file1), models1), "model-reader");
+        reader.setDaemon(true);
+        reader.start();
 
-        double atom2_x = a2.coordinates[0];
-        double atom2_y = a2.coordinates[1];
-        double atom2_z = a2.coordinates[2];
+        try (Metrics.Phase phase = run.phase("pairs");
+             BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile))) {
+            writer.append("# frame clashes rebuilt");
+            writer.newLine();
+            Frames frames = new Frames(models1, writer, vdw, skin);
+            PdbReader.allAtoms().readEntries(file2, frames);
+            frames.finish();
+            phase.count("frames", frames.count).count("rebuiltAtoms", frames.rebuiltAtoms);
+        } finally {
+            reader.interrupt();
+        }
+    }
 
-        return (Math.sqrt(Math.pow(atom1_x - atom2_x, 2) + Math.pow(atom1_y - atom2_y, 2) + Math.pow(atom1_z - atom2_z, 2)));
+    /**
+     * The clashes of the models of file 2 read so far, against the models of file 1 taken from a queue.
+     * The atoms of both files are in one neighbour list, those of file 1 first as group 0.
+     */
+    private static final class Frames implements PdbReader.EntryHandler {
+        private final BlockingQueue<Ligand> models1;
+        private final BufferedWriter writer;
+        private final boolean vdw;
+        private final double skin;
+        private AtomTable model1;
+        private int models1Read;
+        private boolean models1Done;
+        private VerletList neighbours;
+        private double[] x, y, z;
+        private final LongList contacts = new LongList();
+        int count;
+        long rebuiltAtoms;
 
+        Frames(BlockingQueue<Ligand> models1, BufferedWriter writer, boolean vdw, double skin) {
+            this.models1 = models1;
+            this.writer = writer;
+            this.vdw = vdw;
+            this.skin = skin;
+        }
+
+        @Override
+        public void entry(int number, AtomTable model2) throws IOException {
+            Ligand next = takeModel1();
+            if (next != null) {
+                model1 = next.atoms;
+            } else if (models1Read != 1) {
+                throw new IOException("File 1 has " + models1Read + " model(s), file 2 has more");
+            }
+            int n1 = model1.size();
+            if (neighbours == null) {
+                int n = n1 + model2.size();
+                double[] radii = new double[n];
+                int[] groups = new int[n];
+                if (vdw) {
+                    System.arraycopy(Elements.radii(model1), 0, radii, 0, n1);
+                    System.arraycopy(Elements.radii(model2), 0, radii, n1, model2.size());
+                } else {
+                    Arrays.fill(radii, atom_radius);
+                }
+                Arrays.fill(groups, n1, n, 1);
+                neighbours = new VerletList(radii, groups, skin);
+                x = new double[n];
+                y = new double[n];
+                z = new double[n];
+            } else if (n1 + model2.size() != neighbours.size()) {
+                throw new IOException("Model " + number + " has " + n1 + " + " + model2.size() + " atoms, the first has " + neighbours.size());
+            }
+            System.arraycopy(model1.xs(), 0, x, 0, n1);
+            System.arraycopy(model1.ys(), 0, y, 0, n1);
+            System.arraycopy(model1.zs(), 0, z, 0, n1);
+            System.arraycopy(model2.xs(), 0, x, n1, model2.size());
+            System.arraycopy(model2.ys(), 0, y, n1, model2.size());
+            System.arraycopy(model2.zs(), 0, z, n1, model2.size());
+            rebuiltAtoms += neighbours.update(x, y, z);
+            neighbours.contacts(contacts);
+
+            // Every pair is an atom of file 1 and one of file 2, the higher number
+            BitSet clashing = new BitSet(model2.size());
+            for (int k = 0; k < contacts.size(); k++) {
+                clashing.set(PairSet.second(contacts.get(k)) - n1);
+            }
+            writer.append(String.valueOf(number)).append(' ').append(String.valueOf(clashing.cardinality()))
+                    .append(' ').append(String.valueOf(neighbours.rebuiltAtoms()));
+            writer.newLine();
+            count++;
+        }
+
+        /**
+         * @return the next model of file 1, or null once all were taken
+         */
+        private Ligand takeModel1() throws IOException {
+            if (models1Done) {
+                return null;
+            }
+            Ligand next;
+            try {
+                next = models1.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            if (next == Ligand.LAST) {
+                models1Done = true;
+                return null;
+            }
+            if (next.error != null) {
+                throw new IOException(next.error);
+            }
+            models1Read++;
+            return next;
+        }
+
+        /**
+         * Checks that file 1 had no more models than file 2
+         */
+        void finish() throws IOException {
+            if (count == 0) {
+                throw new IOException("File 2 has no models");
+            }
+            if (takeModel1() != null) {
+                throw new IOException("File 1 has more models than file 2");
+            }
+        }
+    }
+
+    /**
+     * A ligand read for a screen or a model of file 1 read for a trajectory, or the error that kept it from being read
+     */
+    private static final class Ligand {
+        static final Ligand LAST = new Ligand(null, null, null);
+
+        final String name;
+        final AtomTable atoms;
+        final String error;
+
+        Ligand(String name, AtomTable atoms, String error) {
+            this.name = name;
+            this.atoms = atoms;
+            this.error = error;
+        }
     }
 
     /**
-     * Finds steric overlaps between two sets of spheres
+     * Checks many ligands against one receptor. The receptor is indexed once; the ligands are
+     * read on a separate thread into a bounded queue, so reading overlaps with the clash checks
+     * and at most LIGAND_QUEUE ligands are held in memory.
      *
-     * @return the number of comparisons made
+     * @param receptor    the receptor PDB file
+     * @param ligandFiles PDB files holding one or more ligands each
+     * @param outputFile  the file to write the clashes of every ligand to
+     * @param vdw         true for the van der Waals radii of the elements, false for atom_radius
+     * @param pool        pool to check the atoms of a ligand on, or null for a single thread
+     * @param metrics     the metrics to record the phases in
+     * @throws IOException if the receptor cannot be read or the report cannot be written
+     */
+    static void screen(Path receptor, List<Path> ligandFiles, File outputFile, boolean vdw, ForkJoinPool pool, Metrics metrics) throws IOException, InterruptedException {
+        Metrics.Run run = metrics.run(receptor.toString());
+        ClashIndex index = readIndex(receptor, vdw, run);
+
+        BlockingQueue<Ligand> ligands = new ArrayBlockingQueue<>(LIGAND_QUEUE);
+        Thread reader = new Thread(() -> readLigands(ligandFiles, ligands), "ligand-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        int screened = 0;
+        int clashingLigands = 0;
+        long comparisons = 0;
+        try (Metrics.Phase phase = run.phase("pairs");
+             BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile))) {
+            for (Ligand ligand = ligands.take(); ligand != Ligand.LAST; ligand = ligands.take()) {
+                writer.append("Ligand: ").append(ligand.name);
+                writer.newLine();
+                if (ligand.error != null) {
+                    writer.append("Error: ").append(ligand.error);
+                    writer.newLine();
+                } else {
+                    long[] clashing = new long[(ligand.atoms.size() + 63) / 64];
+                    comparisons += findOverlaps(index, ligand.atoms, clashing, pool);
+                    int[] overlaps = sort(ligand.atoms, BitSet.valueOf(clashing));
+                    writer.append("Number of clashing atoms: ").append(String.valueOf(overlaps.length));
+                    writer.newLine();
+                    for (int overlap : overlaps) {
+                        appendAtom(writer, ligand.atoms, overlap);
+                    }
+                    screened++;
+                    if (overlaps.length > 0) {
+                        clashingLigands++;
+                    }
+                }
+                writer.flush();
+            }
+            phase.count("ligands", screened).count("clashingLigands", clashingLigands).count("comparisons", comparisons);
+        } finally {
+            reader.interrupt();
+        }
+        System.out.println("Screened " + screened + " ligand(s), " + clashingLigands + " with clashes");
+    }
+
+    /**
+     * Reads every entry of the ligand files into the queue, ending with Ligand.LAST.
+     * Stops quietly when interrupted.
      */
-    private static int findOverlaps() {
-        int comparisons = 0;
+    private static void readLigands(List<Path> ligandFiles, BlockingQueue<Ligand> ligands) {
+        PdbReader reader = PdbReader.allAtoms();
+        try {
+            for (Path file : ligandFiles) {
+                String name = file.getFileName().toString();
+                try {
+                    reader.readEntries(file, (number, atoms) -> put(ligands, new Ligand(name + "#" + number, atoms, null)));
+                } catch (InterruptedIOException e) {
+                    throw e;
+                } catch (IOException e) {
+                    put(ligands, new Ligand(name, null, e.toString()));
+                }
+            }
+            put(ligands, Ligand.LAST);
+        } catch (InterruptedIOException e) {
+            // the screen stopped, nobody takes the remaining ligands
+        }
+    }
 
-        for (Atom atom_1 : atom_file_1) {
-            for (Atom atom_2 : atom_file_2) {
-                if (!overlaps.contains(atom_2)) {
-                    if ((calculateDistance(atom_1, atom_2) < (2 * atom_radius))) {
-                        overlaps.add(atom_2);
+    private static void put(BlockingQueue<Ligand> ligands, Ligand ligand) throws InterruptedIOException {
+        try {
+            ligands.put(ligand);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Scores rigid placements of a ligand against a receptor. The receptor is indexed and both
+     * files are read once; the poses are read and scored POSE_CHUNK at a time.
+     *
+     * @param receptor   the receptor PDB file
+     * @param ligand     the ligand PDB file, in the frame the poses apply to
+     * @param posesFile  the poses, 12 numbers per line
+     * @param budget     largest number of clashes worth counting exactly
+     * @param outputFile the file to write the score of every pose to
+     * @param vdw        true for the van der Waals radii of the elements, false for atom_radius
+     * @param pool       pool to score the poses on, or null for a single thread
+     * @param metrics    the metrics to record the phases in
+     * @throws IOException if a file cannot be read, a pose is malformed or the scores cannot be written
+     */
+    static void scorePoses(Path receptor, Path ligand, Path posesFile, int budget, File outputFile, boolean vdw, ForkJoinPool pool, Metrics metrics) throws IOException {
+        Metrics.Run run = metrics.run(receptor + " " + ligand);
+        ClashIndex index = readIndex(receptor, vdw, run);
+        PoseScorer scorer;
+        try (Metrics.Phase phase = run.phase("parse")) {
+            AtomTable ligandAtoms = PdbReader.allAtoms().read(ligand);
+            scorer = new PoseScorer(index, ligandAtoms);
+            phase.count("atoms", ligandAtoms.size());
+        }
+        double[] poses = new double[POSE_CHUNK * PoseScorer.POSE_SIZE];
+        int scored = 0;
+        int clashFree = 0;
+        try (Metrics.Phase phase = run.phase("pairs");
+             BufferedReader reader = Files.newBufferedReader(posesFile);
+             BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile))) {
+            int[] lineNumber = {0};
+            for (int count = readPoses(reader, posesFile, lineNumber, poses); count > 0; count = readPoses(reader, posesFile, lineNumber, poses)) {
+                int[] scores = scorer.scoreAll(poses, count, budget, pool);
+                for (int pose = 0; pose < count; pose++) {
+                    writer.append(String.valueOf(scored + pose + 1)).append(" ");
+                    writer.append(scores[pose] > budget ? ">" + budget : String.valueOf(scores[pose]));
+                    writer.newLine();
+                    if (scores[pose] == 0) {
+                        clashFree++;
                     }
-                    comparisons++;
                 }
+                scored += count;
             }
+            phase.count("poses", scored).count("clashFree", clashFree);
         }
-        return comparisons;
+        System.out.println("Scored " + scored + " pose(s), " + clashFree + " without clashes");
     }
 
     /**
-     * Sorts an arraylist of atoms in ascending order of atom_number
+     * Reads up to POSE_CHUNK poses, skipping blank lines and lines starting with #
+     *
+     * @param lineNumber the number of the last line read, updated
+     * @return the number of poses read, 0 at the end of the file
      */
-    private static void sort() {
-        overlaps.sort(Comparator.comparing(o -> o.atom_number));
+    private static int readPoses(BufferedReader reader, Path posesFile, int[] lineNumber, double[] poses) throws IOException {
+        int count = 0;
+        String line;
+        while (count < POSE_CHUNK && (line = reader.readLine()) != null) {
+            lineNumber[0]++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] numbers = line.split("\\s+");
+            if (numbers.length != PoseScorer.POSE_SIZE) {
+                throw new IOException(posesFile + ":" + lineNumber[0] + ": expected " + PoseScorer.POSE_SIZE + " numbers, found " + numbers.length);
+            }
+            try {
+                for (int k = 0; k < PoseScorer.POSE_SIZE; k++) {
+                    poses[count * PoseScorer.POSE_SIZE + k] = Double.parseDouble(numbers[k]);
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException(posesFile + ":" + lineNumber[0] + ": " + e.getMessage());
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Sorts the clashing atoms in ascending order of atom_number
+     *
+     * @param atoms    the atoms the clashes were found in
+     * @param clashing the clashing atoms, by index
+     * @return the indices of the clashing atoms
+     */
+    static int[] sort(Atoms atoms, BitSet clashing) {
+        long[] keys = new long[clashing.cardinality()];
+        int k = 0;
+        for (int i = clashing.nextSetBit(0); i >= 0; i = clashing.nextSetBit(i + 1)) {
+            keys[k++] = ((long) atoms.serial(i) << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] overlaps = new int[keys.length];
+        for (k = 0; k < keys.length; k++) {
+            overlaps[k] = (int) keys[k];
+        }
+        return overlaps;
     }
 
-    private static void generateOverlapsFile() throws IOException {
+    /**
+     * Finds the first of name.txt, name1.txt, name2.txt, ... that does not exist yet
+     */
+    private static File nextOutputFile(String name) {
         int fileNumber = 0;
 
-        File outputFile = new File("overlaps.txt");
+        File outputFile = new File(name + ".txt");
 
         while (outputFile.exists()) {
             fileNumber++;
-            outputFile = new File("overlaps" + fileNumber + ".txt");
+            outputFile = new File(name + fileNumber + ".txt");
         }
-        BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile));
-        writer.append("Number of clashing atoms: ").append(String.valueOf(overlaps.size()));
-        writer.newLine();
-        writer.append("Number of comparisons made: ").append(String.valueOf(Steric_Overlap.comparisons));
-        writer.newLine();
-        for (Atom overlap : overlaps) {
-
-            writer.append(String.valueOf(overlap.atom_number)).append(" ").append(overlap.acid).
-                    append(" ").append(String.valueOf(overlap.b)).append(" ").append(String.valueOf(overlap.c));
-            writer.newLine();
+        return outputFile;
+    }
 
+    /**
+     * Writes the clashing atoms of file 2, formatted into buffers that a writer thread writes
+     * while the next ones are filled
+     */
+    private static void generateOverlapsFile(File outputFile, Atoms atom_file_2, int[] overlaps, long comparisons) throws IOException {
+        try (PipelinedWriter writer = new PipelinedWriter(outputFile.toPath(), 2)) {
+            PipelinedWriter.Lines lines = writer.take();
+            lines.put("Number of clashing atoms: ").put(overlaps.length).newLine();
+            lines.put("Number of comparisons made: ").put(comparisons).newLine();
+            for (int overlap : overlaps) {
+                lines = writer.reserve(lines, OVERLAP_LINE_BYTES);
+                lines.put(atom_file_2.serial(overlap)).put(' ').putPacked(atom_file_2.residueNameCode(overlap))
+                        .put(' ').put(atom_file_2.residueNumber(overlap)).put(' ').putPacked(atom_file_2.nameCode(overlap)).newLine();
+            }
+            writer.write(lines);
         }
-        writer.close();
     }
 
-    //Hellooo
+    private static void appendAtom(BufferedWriter writer, AtomTable atoms, int atom) throws IOException {
+        writer.append(String.valueOf(atoms.serial(atom))).append(" ").append(atoms.residueName(atom)).
+                append(" ").append(String.valueOf(atoms.residueNumber(atom))).append(" ").append(atoms.name(atom));
+        writer.newLine();
+    }
 }
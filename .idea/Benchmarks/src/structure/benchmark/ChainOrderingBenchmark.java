@@ -0,0 +1,81 @@
+package structure.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import structure.AtomTable;
+import structure.ChainTracer;
+import structure.NearestNeighbourPath;
+import structure.PdbReader;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ordering the alpha carbons of a chain with MainChainTracing and residue_atom_ordering.
+ * Both tools only have a main method, so a run includes reading the coordinate list;
+ * their printed order is discarded. chainTracer and nearestNeighbourPath measure the orderings alone.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ChainOrderingBenchmark {
+
+    private static final MethodType MAIN = MethodType.methodType(void.class, String[].class);
+    private static final MethodHandle MAIN_CHAIN_TRACING = Fixtures.tool("MainChainTracing", "main", MAIN);
+    private static final MethodHandle RESIDUE_ATOM_ORDERING = Fixtures.tool("residue_atom_ordering", "main", MAIN);
+
+    @Param({"data_q1", "test_q1"})
+    public String coordinates;
+
+    private String[] args;
+    private AtomTable atoms;
+    private PrintStream out;
+
+    @Setup
+    public void setUp() throws IOException {
+        args = new String[]{Fixtures.file(coordinates + ".txt").toString()};
+        atoms = PdbReader.readCoordinateList(Fixtures.file(coordinates + ".txt"));
+        out = Fixtures.muteOutput();
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public void mainChainTracing() throws Throwable {
+        MAIN_CHAIN_TRACING.invokeExact(args);
+    }
+
+    @Benchmark
+    public int[] chainTracer() {
+        return new ChainTracer(atoms).order();
+    }
+
+    @Benchmark
+    public void residueAtomOrdering() throws Throwable {
+        RESIDUE_ATOM_ORDERING.invokeExact(args);
+    }
+
+    @Benchmark
+    public int[] nearestNeighbourPath() {
+        return new NearestNeighbourPath(atoms).from(atoms.size() / 2);
+    }
+}
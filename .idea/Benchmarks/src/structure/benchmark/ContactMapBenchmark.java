@@ -0,0 +1,124 @@
+package structure.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import structure.AtomTable;
+import structure.PdbReader;
+import structure.Pools;
+import structure.SparseContacts;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the alpha-carbon contact map (8Å cutoff) of a chain as sparse rows found by a
+ * neighbour search
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ContactMapBenchmark {
+
+    @Param({"1cdh", "2csn"})
+    public String structure;
+
+    /**
+     * Threads of the parallel build, 0 for all processors
+     */
+    @Param({"0"})
+    public int threads;
+
+    /**
+     * Copies of the chain along each axis for {@link #checkParallelSearch}
+     */
+    private static final int COPIES = 8;
+
+    private AtomTable alphaCarbons;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setUp() throws IOException {
+        alphaCarbons = PdbReader.alphaCarbons().read(Fixtures.file(structure + ".pdb"));
+        pool = Pools.of(threads);
+        checkParallelSearch(copies(alphaCarbons, COPIES));
+    }
+
+    /**
+     * Checks that the neighbour search finds the same contacts on a pool as on one thread, on
+     * atoms enough for the ranges of cells to be split more than once
+     */
+    private static void checkParallelSearch(AtomTable atoms) {
+        ForkJoinPool checkPool = new ForkJoinPool(2);
+        try {
+            SparseContacts serial = SparseContacts.of(atoms, 8);
+            SparseContacts parallel = SparseContacts.of(atoms, 8, checkPool);
+            int[] serialRow = new int[atoms.size()];
+            int[] parallelRow = new int[atoms.size()];
+            for (int i = 0; i < atoms.size(); i++) {
+                int length = serial.row(i, serialRow);
+                if (parallel.row(i, parallelRow) != length
+                        || !Arrays.equals(serialRow, 0, length, parallelRow, 0, length)) {
+                    throw new IllegalStateException("Parallel search differs from the serial one in row " + i);
+                }
+            }
+        } finally {
+            checkPool.shutdown();
+        }
+    }
+
+    /**
+     * @return copies of the atoms on a cubic lattice, far enough apart for no contacts between copies
+     */
+    private static AtomTable copies(AtomTable atoms, int perAxis) {
+        double spacing = 0;
+        for (int i = 0; i < atoms.size(); i++) {
+            spacing = Math.max(spacing, Math.max(Math.abs(atoms.x(i)), Math.max(Math.abs(atoms.y(i)), Math.abs(atoms.z(i)))));
+        }
+        spacing = 2 * spacing + 16;
+        AtomTable copies = new AtomTable(atoms.size() * perAxis * perAxis * perAxis);
+        for (int a = 0; a < perAxis; a++) {
+            for (int b = 0; b < perAxis; b++) {
+                for (int c = 0; c < perAxis; c++) {
+                    for (int i = 0; i < atoms.size(); i++) {
+                        copies.add(copies.size(), atoms.nameCode(i), atoms.residueNameCode(i), atoms.chain(i),
+                                atoms.residueNumber(i), atoms.x(i) + a * spacing, atoms.y(i) + b * spacing,
+                                atoms.z(i) + c * spacing);
+                    }
+                }
+            }
+        }
+        return copies;
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public SparseContacts sparseContacts() {
+        return SparseContacts.of(alphaCarbons, 8);
+    }
+
+    @Benchmark
+    public SparseContacts sparseContactsParallel() {
+        return SparseContacts.of(alphaCarbons, 8, pool);
+    }
+}
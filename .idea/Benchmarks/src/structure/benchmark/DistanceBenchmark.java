@@ -0,0 +1,64 @@
+package structure.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import structure.AtomTable;
+import structure.PdbReader;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * All pairwise distances between the atoms of a structure, summed so none of them is dropped
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class DistanceBenchmark {
+
+    @Param({"1cdh", "2csn"})
+    public String structure;
+
+    private AtomTable atoms;
+
+    @Setup
+    public void setUp() throws IOException {
+        atoms = PdbReader.allAtoms().read(Fixtures.file(structure + ".pdb"));
+    }
+
+    @Benchmark
+    public double distanceSquared() {
+        int n = atoms.size();
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                sum += atoms.distanceSquared(i, j);
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double distance() {
+        int n = atoms.size();
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                sum += atoms.distance(i, j);
+            }
+        }
+        return sum;
+    }
+}
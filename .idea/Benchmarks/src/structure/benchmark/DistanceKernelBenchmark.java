@@ -0,0 +1,84 @@
+package structure.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import structure.AtomTable;
+import structure.DistanceKernel;
+import structure.Elements;
+import structure.PdbReader;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DistanceKernel: every atom of a structure tested against all atoms, 64 at a time with a
+ * cutoff and as one block of van der Waals spheres, with the scalar and the vector kernel
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Benchmark)
+public class DistanceKernelBenchmark {
+
+    @Param({"2csn"})
+    public String structure;
+
+    @Param({"scalar", "vector"})
+    public String kernel;
+
+    private DistanceKernel distances;
+    private AtomTable atoms;
+    private double[] radii;
+
+    @Setup
+    public void setUp() throws IOException {
+        distances = kernel.equals("scalar") ? DistanceKernel.scalar() : DistanceKernel.get();
+        if (!distances.name().startsWith(kernel)) {
+            throw new IllegalStateException("Kernel not available: " + kernel);
+        }
+        atoms = PdbReader.allAtoms().read(Fixtures.file(structure + ".pdb"));
+        radii = Elements.radii(atoms);
+    }
+
+    @Benchmark
+    public long within() {
+        double[] x = atoms.xs();
+        double[] y = atoms.ys();
+        double[] z = atoms.zs();
+        int n = atoms.size();
+        long contacts = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j += 64) {
+                contacts += Long.bitCount(distances.within(x[i], y[i], z[i], x, y, z, j, Math.min(64, n - j), 64));
+            }
+        }
+        return contacts;
+    }
+
+    /**
+     * Spheres of radius 0 just outside the atoms along x, so most blocks are scanned to the end
+     */
+    @Benchmark
+    public long firstOverlap() {
+        double[] x = atoms.xs();
+        double[] y = atoms.ys();
+        double[] z = atoms.zs();
+        int n = atoms.size();
+        long overlaps = 0;
+        for (int i = 0; i < n; i++) {
+            overlaps += distances.firstOverlap(x[i] + 2.5, y[i], z[i], 0, x, y, z, radii, 0, n);
+        }
+        return overlaps;
+    }
+}
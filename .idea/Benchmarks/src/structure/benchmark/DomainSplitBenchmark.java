@@ -0,0 +1,51 @@
+package structure.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import structure.Contacts;
+import structure.PdbReader;
+import structure.SparseContacts;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single_segment_scan.generatePartition: scoring every split of a chain into two domains
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class DomainSplitBenchmark {
+
+    private static final MethodHandle GENERATE_PARTITION = Fixtures.tool("Single_segment_scan", "generatePartition",
+            MethodType.methodType(double[].class, Contacts.class));
+
+    @Param({"1cdh", "2csn"})
+    public String structure;
+
+    private Contacts contacts;
+
+    @Setup
+    public void setUp() throws IOException {
+        contacts = SparseContacts.of(PdbReader.alphaCarbons().read(Fixtures.file(structure + ".pdb")), 8);
+    }
+
+    @Benchmark
+    public double[] generatePartition() throws Throwable {
+        return (double[]) GENERATE_PARTITION.invokeExact(contacts);
+    }
+}
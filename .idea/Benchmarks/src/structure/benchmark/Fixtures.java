@@ -0,0 +1,71 @@
+package structure.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Access to the input files of the assignments and to the command line tools, for the benchmarks.
+ * <p>
+ * The fixtures are packaged on the classpath and copied to a temporary file, since the readers
+ * work on paths. The tools are classes of the default package, which cannot be imported, so their
+ * methods are looked up by name.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * Copies a fixture (e.g. "1cdh.pdb" or "data_q1.txt") to a temporary file deleted on exit
+     *
+     * @param name file name of the fixture
+     * @return path of the copy
+     */
+    static Path file(String name) throws IOException {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+            if (in == null) {
+                throw new IOException("No fixture " + name);
+            }
+            Path copy = Files.createTempFile("fixture-", "-" + name);
+            copy.toFile().deleteOnExit();
+            Files.copy(in, copy, StandardCopyOption.REPLACE_EXISTING);
+            return copy;
+        }
+    }
+
+    /**
+     * Finds a static method of a tool, also when it is private or package-private
+     *
+     * @param tool   class name of the tool
+     * @param method name of the method
+     * @param type   type of the method
+     * @return handle to the method
+     */
+    static MethodHandle tool(String tool, String method, MethodType type) {
+        try {
+            Class<?> toolClass = Class.forName(tool);
+            return MethodHandles.privateLookupIn(toolClass, MethodHandles.lookup()).findStatic(toolClass, method, type);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot find " + tool + "." + method, e);
+        }
+    }
+
+    /**
+     * Replaces System.out with a stream discarding everything, for tools that print their results
+     *
+     * @return the previous System.out, to restore afterwards
+     */
+    static PrintStream muteOutput() {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        return out;
+    }
+}
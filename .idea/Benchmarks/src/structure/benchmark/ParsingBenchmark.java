@@ -0,0 +1,80 @@
+package structure.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import structure.AtomTable;
+import structure.Atoms;
+import structure.PdbReader;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a PDB file into an atom table, the alpha carbons only and all atoms, and the same
+ * structure from BinaryCIF
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ParsingBenchmark {
+
+    @Param({"1cdh", "2csn"})
+    public String structure;
+
+    private Path file;
+    private Path binaryCif;
+
+    /**
+     * Copies the fixtures and checks that the BinaryCIF file, whose columns are stored with every
+     * encoding the PDB uses for atom sites, decodes to the atoms of the PDB file
+     */
+    @Setup
+    public void setUp() throws IOException {
+        file = Fixtures.file(structure + ".pdb");
+        binaryCif = Fixtures.file(structure + ".bcif");
+        checkSameAtoms(PdbReader.allAtoms().read(file), PdbReader.allAtoms().read(binaryCif));
+    }
+
+    private void checkSameAtoms(Atoms expected, Atoms actual) {
+        if (actual.size() != expected.size()) {
+            throw new IllegalStateException(structure + ".bcif has " + actual.size() + " atoms, "
+                    + structure + ".pdb " + expected.size());
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            if (actual.serial(i) != expected.serial(i) || actual.nameCode(i) != expected.nameCode(i)
+                    || actual.residueNameCode(i) != expected.residueNameCode(i) || actual.chain(i) != expected.chain(i)
+                    || actual.residueNumber(i) != expected.residueNumber(i) || actual.elementCode(i) != expected.elementCode(i)
+                    || actual.x(i) != expected.x(i) || actual.y(i) != expected.y(i) || actual.z(i) != expected.z(i)) {
+                throw new IllegalStateException("Atom " + i + " of " + structure + ".bcif differs from " + structure + ".pdb");
+            }
+        }
+    }
+
+    @Benchmark
+    public AtomTable alphaCarbons() throws IOException {
+        return PdbReader.alphaCarbons().read(file);
+    }
+
+    @Benchmark
+    public AtomTable allAtoms() throws IOException {
+        return PdbReader.allAtoms().read(file);
+    }
+
+    @Benchmark
+    public AtomTable allAtomsBinaryCif() throws IOException {
+        return PdbReader.allAtoms().read(binaryCif);
+    }
+}
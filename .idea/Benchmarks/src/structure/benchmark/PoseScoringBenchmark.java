@@ -0,0 +1,74 @@
+package structure.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import structure.ClashIndex;
+import structure.PdbReader;
+import structure.PoseScorer;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PoseScorer.score: clashes of a ligand in many rigid placements against a receptor indexed once,
+ * on a single thread, counting all clashes and stopping at a budget
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class PoseScoringBenchmark {
+
+    private static final int POSES = 256;
+
+    @Param({"1cdh"})
+    public String receptor;
+
+    @Param({"2csn"})
+    public String ligand;
+
+    @Param({"false", "true"})
+    public boolean vdw;
+
+    private PoseScorer scorer;
+    private double[] poses;
+
+    @Setup
+    public void setUp() throws IOException {
+        ClashIndex index = vdw ? ClashIndex.vdw(PdbReader.allAtoms().read(Fixtures.file(receptor + ".pdb")))
+                : ClashIndex.uniform(PdbReader.allAtoms().read(Fixtures.file(receptor + ".pdb")), 2);
+        scorer = new PoseScorer(index, PdbReader.allAtoms().read(Fixtures.file(ligand + ".pdb")));
+        // Translations only, so the poses range from buried to clear of the receptor
+        Random random = new Random(42);
+        poses = new double[POSES * PoseScorer.POSE_SIZE];
+        for (int pose = 0; pose < POSES; pose++) {
+            int p = pose * PoseScorer.POSE_SIZE;
+            poses[p] = poses[p + 4] = poses[p + 8] = 1;
+            for (int k = 9; k < 12; k++) {
+                poses[p + k] = random.nextDouble() * 80 - 40;
+            }
+        }
+    }
+
+    @Benchmark
+    public int[] noBudget() {
+        return scorer.scoreAll(poses, POSES, PoseScorer.NO_BUDGET, null);
+    }
+
+    @Benchmark
+    public int[] budget() {
+        return scorer.scoreAll(poses, POSES, 10, null);
+    }
+}
@@ -0,0 +1,70 @@
+package structure.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import structure.AtomTable;
+import structure.PdbReader;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steric_Overlap.findOverlaps: the atoms of one structure clashing with another, on a single thread,
+ * with one radius for all atoms (cell grid) and with van der Waals radii (sort and sweep)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class StericOverlapBenchmark {
+
+    private static final MethodHandle FIND_OVERLAPS = Fixtures.tool("Steric_Overlap", "findOverlaps",
+            MethodType.methodType(long.class, AtomTable.class, AtomTable.class, long[].class, ForkJoinPool.class));
+
+    private static final MethodHandle FIND_VDW_OVERLAPS = Fixtures.tool("Steric_Overlap", "findVdwOverlaps",
+            MethodType.methodType(long.class, AtomTable.class, AtomTable.class, long[].class, ForkJoinPool.class));
+
+    @Param({"1cdh"})
+    public String first;
+
+    @Param({"2csn"})
+    public String second;
+
+    private AtomTable atoms1;
+    private AtomTable atoms2;
+
+    @Setup
+    public void setUp() throws IOException {
+        atoms1 = PdbReader.allAtoms().read(Fixtures.file(first + ".pdb"));
+        atoms2 = PdbReader.allAtoms().read(Fixtures.file(second + ".pdb"));
+    }
+
+    @Benchmark
+    public long findOverlaps(Blackhole blackhole) throws Throwable {
+        long[] clashing = new long[(atoms2.size() + 63) / 64];
+        blackhole.consume(clashing);
+        return (long) FIND_OVERLAPS.invokeExact(atoms1, atoms2, clashing, (ForkJoinPool) null);
+    }
+
+    @Benchmark
+    public long findVdwOverlaps(Blackhole blackhole) throws Throwable {
+        long[] clashing = new long[(atoms2.size() + 63) / 64];
+        blackhole.consume(clashing);
+        return (long) FIND_VDW_OVERLAPS.invokeExact(atoms1, atoms2, clashing, (ForkJoinPool) null);
+    }
+}
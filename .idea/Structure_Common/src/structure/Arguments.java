@@ -0,0 +1,58 @@
+package structure;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command line arguments of the tools: options starting with "--" and the remaining file names.
+ * Options listed as taking a value read the next argument, all other options are flags.
+ */
+public final class Arguments {
+
+    private final Map<String, String> options = new HashMap<>();
+    private final List<String> files = new ArrayList<>();
+
+    /**
+     * @param args         the arguments given to main
+     * @param valueOptions names of the options followed by a value, e.g. "--threads"
+     */
+    public Arguments(String[] args, String... valueOptions) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                files.add(arg);
+            } else if (List.of(valueOptions).contains(arg)) {
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException("Missing value for " + arg);
+                }
+                options.put(arg, args[++i]);
+            } else {
+                options.put(arg, "");
+            }
+        }
+    }
+
+    public List<String> files() {
+        return files;
+    }
+
+    public boolean has(String option) {
+        return options.containsKey(option);
+    }
+
+    public String value(String option, String fallback) {
+        return options.getOrDefault(option, fallback);
+    }
+
+    public int intValue(String option, int fallback) {
+        String value = options.get(option);
+        return value == null ? fallback : Integer.parseInt(value);
+    }
+
+    public double doubleValue(String option, double fallback) {
+        String value = options.get(option);
+        return value == null ? fallback : Double.parseDouble(value);
+    }
+}
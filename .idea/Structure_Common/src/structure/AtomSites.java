@@ -0,0 +1,110 @@
+package structure;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Turns the rows of an mmCIF or BinaryCIF _atom_site table into atoms of the entries of a
+ * {@link PdbReader}, keeping the atoms its filter keeps. A change of model number ends an entry,
+ * as ENDMDL does in a PDB file.
+ * <p>
+ * Names are packed like {@link AtomTable#pack}, keeping the first four characters. A chain id of
+ * one character is kept as it is; longer ids, which large assemblies need beyond 62 chains, are
+ * numbered in order of appearance from U+E000 (the private use area), so every chain keeps its
+ * own character.
+ */
+final class AtomSites {
+
+    private static final char FIRST_LONG_CHAIN = '\uE000';
+
+    private final PdbReader filter;
+    private final PdbReader.Entries entries;
+    private final Map<Integer, Character> longChains = new HashMap<>();
+    private int lastChainCode;
+    private char lastChain = ' ';
+    private int model;
+    private boolean started;
+
+    AtomSites(PdbReader filter, PdbReader.Entries entries) {
+        this.filter = filter;
+        this.entries = entries;
+    }
+
+    /**
+     * Adds an atom if the filter keeps it, first ending the entry if the model changed
+     *
+     * @param element packed upper case element symbol, 0 to infer it from the name
+     */
+    void add(boolean hetatm, int model, int serial, int name, int residueName, char chain, int residueNumber,
+             double x, double y, double z, int element) throws IOException {
+        if (started && model != this.model) {
+            entries.end();
+        }
+        started = true;
+        this.model = model;
+        int record = hetatm ? PdbReader.HETATM : PdbReader.ATOM;
+        if (!filter.keeps(record, name)) {
+            return;
+        }
+        if (element == 0 && name != 0) {
+            // Names are not aligned in columns as in PDB files, so the element is the first letter
+            int first = name;
+            while ((first & ~0xFF) != 0) {
+                first >>>= 8;
+            }
+            element = Elements.infer(' ', first, ' ');
+        }
+        entries.add(record, serial, name, residueName, chain, residueNumber, x, y, z, element);
+    }
+
+    /**
+     * @param code a chain id packed with {@link #pack}
+     * @return the character of the chain
+     */
+    char chain(int code) {
+        if (code == 0) {
+            return ' ';
+        }
+        if ((code & ~0xFF) == 0) {
+            return (char) code;
+        }
+        // Rows come chain by chain, so the map is only consulted when the chain changes
+        if (code != lastChainCode) {
+            Character chain = longChains.get(code);
+            if (chain == null) {
+                chain = (char) (FIRST_LONG_CHAIN + longChains.size());
+                longChains.put(code, chain);
+            }
+            lastChainCode = code;
+            lastChain = chain;
+        }
+        return lastChain;
+    }
+
+    /**
+     * Packs the first four characters of bytes from to to, like {@link AtomTable#pack}
+     *
+     * @param upper true to pack lower case letters as upper case, for element symbols
+     */
+    static int pack(byte[] bytes, int from, int to, boolean upper) {
+        int code = 0;
+        for (int i = from; i < Math.min(to, from + 4); i++) {
+            int c = bytes[i] & 0xFF;
+            code = (code << 8) | (upper && c >= 'a' && c <= 'z' ? c - 'a' + 'A' : c);
+        }
+        return code;
+    }
+
+    /**
+     * Packs the first four characters of text, like {@link AtomTable#pack}
+     */
+    static int pack(String text, boolean upper) {
+        int code = 0;
+        for (int i = 0; i < Math.min(text.length(), 4); i++) {
+            int c = text.charAt(i) & 0xFF;
+            code = (code << 8) | (upper && c >= 'a' && c <= 'z' ? c - 'a' + 'A' : c);
+        }
+        return code;
+    }
+}
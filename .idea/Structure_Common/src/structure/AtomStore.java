@@ -0,0 +1,225 @@
+package structure;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Atoms of a structure held off the heap, for assemblies of millions of atoms (e.g. whole viral
+ * capsids) on a modest heap. The atoms are stored in blocks of {@link #BLOCK_ATOMS}, each a
+ * direct buffer or a mapped region of a file, so the garbage collector neither scans nor copies
+ * them and the store grows without copying what it holds.
+ * <p>
+ * A block holds one column after the other: the coordinates as floats (exact to the thousandth
+ * of an Å of PDB files for coordinates below 8192 Å), serial and residue number as ints, the
+ * chain as a char, and atom name, residue name and element as 16-bit indices into a table of
+ * their packed codes, of which a structure has a few hundred. That is 28 bytes per atom.
+ * <p>
+ * Atoms are added by one thread; once filled, the store can be read by any number of threads.
+ */
+public final class AtomStore implements Atoms {
+
+    /**
+     * Number of atoms in a block
+     */
+    public static final int BLOCK_ATOMS = 1 << 16;
+    private static final int SHIFT = 16;
+    private static final int MASK = BLOCK_ATOMS - 1;
+
+    private static final int X = 0;
+    private static final int Y = 4 * BLOCK_ATOMS;
+    private static final int Z = 8 * BLOCK_ATOMS;
+    private static final int SERIAL = 12 * BLOCK_ATOMS;
+    private static final int RESIDUE_NUMBER = 16 * BLOCK_ATOMS;
+    private static final int CHAIN = 20 * BLOCK_ATOMS;
+    private static final int NAME = 22 * BLOCK_ATOMS;
+    private static final int RESIDUE_NAME = 24 * BLOCK_ATOMS;
+    private static final int ELEMENT = 26 * BLOCK_ATOMS;
+    private static final int BLOCK_BYTES = 28 * BLOCK_ATOMS;
+
+    private static final int MAX_CODES = 1 << 16;
+
+    /**
+     * The file the blocks are mapped from, null for direct buffers
+     */
+    private final Path file;
+    private ByteBuffer[] blocks = new ByteBuffer[16];
+    private int size;
+
+    /**
+     * The packed codes of names and elements by index, and an open-addressing table from code to index + 1
+     */
+    private int[] codes = new int[256];
+    private int codeCount;
+    private int[] codeKeys = new int[512];
+    private int[] codeSlots = new int[512];
+
+    private AtomStore(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * @return an empty store in direct buffers
+     */
+    public static AtomStore allocate() {
+        return new AtomStore(null);
+    }
+
+    /**
+     * @param file the file to map the store to, created or overwritten; it stays valid only as
+     *             long as the store
+     * @return an empty store mapped from a file, which the operating system pages in and out
+     */
+    public static AtomStore map(Path file) {
+        return new AtomStore(file);
+    }
+
+    /**
+     * Appends one atom to the store
+     *
+     * @param element packed upper case element symbol, 0 if unknown (see {@link Elements})
+     * @return the index of the new atom
+     * @throws IOException if a mapped block cannot be added
+     */
+    public int add(int serial, int name, int residueName, char chain, int residueNumber,
+                   double x, double y, double z, int element) throws IOException {
+        int block = size >>> SHIFT;
+        if (block == blocks.length) {
+            blocks = Arrays.copyOf(blocks, blocks.length * 2);
+        }
+        if (blocks[block] == null) {
+            blocks[block] = newBlock(block);
+        }
+        ByteBuffer buffer = blocks[block];
+        int k = size & MASK;
+        buffer.putFloat(X + 4 * k, (float) x);
+        buffer.putFloat(Y + 4 * k, (float) y);
+        buffer.putFloat(Z + 4 * k, (float) z);
+        buffer.putInt(SERIAL + 4 * k, serial);
+        buffer.putInt(RESIDUE_NUMBER + 4 * k, residueNumber);
+        buffer.putChar(CHAIN + 2 * k, chain);
+        buffer.putChar(NAME + 2 * k, intern(name));
+        buffer.putChar(RESIDUE_NAME + 2 * k, intern(residueName));
+        buffer.putChar(ELEMENT + 2 * k, intern(element));
+        return size++;
+    }
+
+    private ByteBuffer newBlock(int block) throws IOException {
+        if (file == null) {
+            return ByteBuffer.allocateDirect(BLOCK_BYTES).order(ByteOrder.nativeOrder());
+        }
+        // The mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, block == 0 ? StandardOpenOption.TRUNCATE_EXISTING : StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, (long) block * BLOCK_BYTES, BLOCK_BYTES)
+                    .order(ByteOrder.nativeOrder());
+        }
+    }
+
+    /**
+     * @return the index of a packed code in the code table, added if new
+     */
+    private char intern(int code) {
+        int mask = codeKeys.length - 1;
+        int slot = mix(code) & mask;
+        while (codeSlots[slot] != 0) {
+            if (codeKeys[slot] == code) {
+                return (char) (codeSlots[slot] - 1);
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (codeCount == MAX_CODES) {
+            throw new IllegalStateException("More than " + MAX_CODES + " different names in one structure");
+        }
+        if (codeCount == codes.length) {
+            codes = Arrays.copyOf(codes, codes.length * 2);
+        }
+        codes[codeCount] = code;
+        codeKeys[slot] = code;
+        codeSlots[slot] = ++codeCount;
+        if (2 * codeCount > codeKeys.length) {
+            rehash();
+        }
+        return (char) (codeCount - 1);
+    }
+
+    private void rehash() {
+        codeKeys = new int[codeKeys.length * 2];
+        codeSlots = new int[codeKeys.length];
+        int mask = codeKeys.length - 1;
+        for (int index = 0; index < codeCount; index++) {
+            int slot = mix(codes[index]) & mask;
+            while (codeSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            codeKeys[slot] = codes[index];
+            codeSlots[slot] = index + 1;
+        }
+    }
+
+    private static int mix(int code) {
+        int h = code * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the number of bytes the atoms take off the heap
+     */
+    public long bytes() {
+        return (long) ((size + MASK) >>> SHIFT) * BLOCK_BYTES;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int serial(int i) {
+        return blocks[i >>> SHIFT].getInt(SERIAL + 4 * (i & MASK));
+    }
+
+    @Override
+    public int nameCode(int i) {
+        return codes[blocks[i >>> SHIFT].getChar(NAME + 2 * (i & MASK))];
+    }
+
+    @Override
+    public int residueNameCode(int i) {
+        return codes[blocks[i >>> SHIFT].getChar(RESIDUE_NAME + 2 * (i & MASK))];
+    }
+
+    @Override
+    public char chain(int i) {
+        return blocks[i >>> SHIFT].getChar(CHAIN + 2 * (i & MASK));
+    }
+
+    @Override
+    public int residueNumber(int i) {
+        return blocks[i >>> SHIFT].getInt(RESIDUE_NUMBER + 4 * (i & MASK));
+    }
+
+    @Override
+    public int elementCode(int i) {
+        return codes[blocks[i >>> SHIFT].getChar(ELEMENT + 2 * (i & MASK))];
+    }
+
+    @Override
+    public double x(int i) {
+        return blocks[i >>> SHIFT].getFloat(X + 4 * (i & MASK));
+    }
+
+    @Override
+    public double y(int i) {
+        return blocks[i >>> SHIFT].getFloat(Y + 4 * (i & MASK));
+    }
+
+    @Override
+    public double z(int i) {
+        return blocks[i >>> SHIFT].getFloat(Z + 4 * (i & MASK));
+    }
+}
@@ -0,0 +1,231 @@
+package structure;
+
+import java.util.Arrays;
+
+/**
+ * Structure-of-arrays table of atoms read from a coordinate file.
+ * Every column is a primitive array indexed by the atom's position in the file,
+ * so no object is created per atom. Atom and residue names and element symbols are kept
+ * as packed ASCII codes (see {@link #pack(CharSequence)}) and only turned into Strings on request.
+ * For structures too large for the heap see {@link AtomStore}.
+ */
+public final class AtomTable implements Atoms {
+
+    private int size;
+    private int[] serial;
+    private int[] name;
+    private int[] residueName;
+    private char[] chain;
+    private int[] residueNumber;
+    private double[] x;
+    private double[] y;
+    private double[] z;
+    private int[] element;
+
+    public AtomTable() {
+        this(256);
+    }
+
+    public AtomTable(int capacity) {
+        capacity = Math.max(capacity, 16);
+        serial = new int[capacity];
+        name = new int[capacity];
+        residueName = new int[capacity];
+        chain = new char[capacity];
+        residueNumber = new int[capacity];
+        x = new double[capacity];
+        y = new double[capacity];
+        z = new double[capacity];
+        element = new int[capacity];
+    }
+
+    /**
+     * Appends one atom of unknown element to the table
+     *
+     * @return the index of the new atom
+     */
+    public int add(int serial, int name, int residueName, char chain, int residueNumber,
+                   double x, double y, double z) {
+        return add(serial, name, residueName, chain, residueNumber, x, y, z, 0);
+    }
+
+    /**
+     * Appends one atom to the table
+     *
+     * @param element packed upper case element symbol, 0 if unknown (see {@link Elements})
+     * @return the index of the new atom
+     */
+    public int add(int serial, int name, int residueName, char chain, int residueNumber,
+                   double x, double y, double z, int element) {
+        if (size == this.x.length) {
+            grow();
+        }
+        this.serial[size] = serial;
+        this.name[size] = name;
+        this.residueName[size] = residueName;
+        this.chain[size] = chain;
+        this.residueNumber[size] = residueNumber;
+        this.x[size] = x;
+        this.y[size] = y;
+        this.z[size] = z;
+        this.element[size] = element;
+        return size++;
+    }
+
+    private void grow() {
+        int capacity = x.length * 2;
+        serial = Arrays.copyOf(serial, capacity);
+        name = Arrays.copyOf(name, capacity);
+        residueName = Arrays.copyOf(residueName, capacity);
+        chain = Arrays.copyOf(chain, capacity);
+        residueNumber = Arrays.copyOf(residueNumber, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        z = Arrays.copyOf(z, capacity);
+        element = Arrays.copyOf(element, capacity);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int serial(int i) {
+        return serial[i];
+    }
+
+    @Override
+    public int nameCode(int i) {
+        return name[i];
+    }
+
+    @Override
+    public String name(int i) {
+        return unpack(name[i]);
+    }
+
+    @Override
+    public int residueNameCode(int i) {
+        return residueName[i];
+    }
+
+    @Override
+    public String residueName(int i) {
+        return unpack(residueName[i]);
+    }
+
+    @Override
+    public char chain(int i) {
+        return chain[i];
+    }
+
+    @Override
+    public int residueNumber(int i) {
+        return residueNumber[i];
+    }
+
+    @Override
+    public int elementCode(int i) {
+        return element[i];
+    }
+
+    @Override
+    public String element(int i) {
+        return unpack(element[i]);
+    }
+
+    @Override
+    public double x(int i) {
+        return x[i];
+    }
+
+    @Override
+    public double y(int i) {
+        return y[i];
+    }
+
+    @Override
+    public double z(int i) {
+        return z[i];
+    }
+
+    /**
+     * Direct access to the coordinate columns for tight loops. Only the first {@link #size()}
+     * entries are valid and the arrays must not be modified.
+     */
+    public double[] xs() {
+        return x;
+    }
+
+    public double[] ys() {
+        return y;
+    }
+
+    public double[] zs() {
+        return z;
+    }
+
+    /**
+     * Squared distance between two atoms of this table
+     */
+    @Override
+    public double distanceSquared(int i, int j) {
+        double dx = x[i] - x[j];
+        double dy = y[i] - y[j];
+        double dz = z[i] - z[j];
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * Calculates the distance between two atoms of this table
+     *
+     * @param i index of atom 1
+     * @param j index of atom 2
+     * @return the distance in Å
+     */
+    @Override
+    public double distance(int i, int j) {
+        return Math.sqrt(distanceSquared(i, j));
+    }
+
+    /**
+     * Packs up to four ASCII characters, surrounding blanks removed, into an int.
+     * Used for atom names (e.g. "CA") and residue names (e.g. "LYS").
+     *
+     * @param text the name to pack
+     * @return the packed code, 0 for an empty name
+     */
+    public static int pack(CharSequence text) {
+        int start = 0;
+        int end = text.length();
+        while (start < end && text.charAt(start) == ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) == ' ') {
+            end--;
+        }
+        if (end - start > 4) {
+            throw new IllegalArgumentException("Name longer than four characters: " + text);
+        }
+        int code = 0;
+        for (int i = start; i < end; i++) {
+            code = (code << 8) | (text.charAt(i) & 0xFF);
+        }
+        return code;
+    }
+
+    /**
+     * Turns a code made by {@link #pack(CharSequence)} back into a String
+     */
+    public static String unpack(int code) {
+        StringBuilder builder = new StringBuilder(4);
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            int c = (code >>> shift) & 0xFF;
+            if (c != 0) {
+                builder.append((char) c);
+            }
+        }
+        return builder.toString();
+    }
+}
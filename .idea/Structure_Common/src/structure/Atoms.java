@@ -0,0 +1,58 @@
+package structure;
+
+/**
+ * Read access to the atoms of a structure by index, whether they are held in an
+ * {@link AtomTable} on the heap or in an {@link AtomStore} off it. Names and element symbols
+ * are packed ASCII codes (see {@link AtomTable#pack(CharSequence)}).
+ */
+public interface Atoms {
+
+    int size();
+
+    int serial(int i);
+
+    int nameCode(int i);
+
+    int residueNameCode(int i);
+
+    char chain(int i);
+
+    int residueNumber(int i);
+
+    int elementCode(int i);
+
+    double x(int i);
+
+    double y(int i);
+
+    double z(int i);
+
+    default String name(int i) {
+        return AtomTable.unpack(nameCode(i));
+    }
+
+    default String residueName(int i) {
+        return AtomTable.unpack(residueNameCode(i));
+    }
+
+    default String element(int i) {
+        return AtomTable.unpack(elementCode(i));
+    }
+
+    /**
+     * Squared distance between two atoms
+     */
+    default double distanceSquared(int i, int j) {
+        double dx = x(i) - x(j);
+        double dy = y(i) - y(j);
+        double dz = z(i) - z(j);
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * @return the distance in Å between two atoms
+     */
+    default double distance(int i, int j) {
+        return Math.sqrt(distanceSquared(i, j));
+    }
+}
@@ -0,0 +1,251 @@
+package structure;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+/**
+ * Runs one of the tools over many inputs in the same JVM.
+ * <p>
+ * The inputs come from a directory (every structure file in it, sorted by name) or from a
+ * manifest, a text file with one job per line. A job line holds one path, or two for the tools
+ * comparing two structures; relative paths are relative to the manifest, and blank lines and
+ * lines starting with # are skipped.
+ * <p>
+ * Every job writes to a path derived from its input names only, so a run gives the same files
+ * whatever the order in which jobs finish. At the end a tab-separated summary.tsv with one line
+ * per job, in input order, is written to the output directory.
+ */
+public final class BatchRunner {
+
+    /**
+     * Work done for one job
+     */
+    public interface Job {
+        /**
+         * @param inputs the structure files of the job
+         * @param output path the job should write its result to
+         * @return what the job found, for the summary
+         */
+        Result run(Path[] inputs, Path output) throws IOException;
+    }
+
+    /**
+     * Summary of one job. Counts that do not apply to a tool are left at -1.
+     */
+    public static final class Result {
+        public long atoms = -1;
+        public long contacts = -1;
+        public long clashes = -1;
+        public int bestSplit = -1;
+        String input;
+        String output;
+        long millis;
+        String error;
+    }
+
+    private final int filesPerJob;
+    private final String extension;
+    private final int jobs;
+
+    /**
+     * @param filesPerJob number of structure files per job, 1 or 2
+     * @param extension   extension of the output files, e.g. ".pairs"
+     * @param jobs        maximum number of jobs running at the same time, 0 for one per processor
+     */
+    public BatchRunner(int filesPerJob, String extension, int jobs) {
+        this.filesPerJob = filesPerJob;
+        this.extension = extension;
+        this.jobs = jobs > 0 ? jobs : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Runs a job for every input and writes the summary
+     *
+     * @param source    directory or manifest listing the inputs
+     * @param outputDir directory to write the results and summary.tsv to
+     * @return the number of failed jobs
+     */
+    public int run(Path source, Path outputDir, Job job) throws IOException, InterruptedException {
+        List<Path[]> inputs = inputs(source);
+        List<Path> outputs = outputPaths(inputs, outputDir);
+        Files.createDirectories(outputDir);
+
+        Semaphore running = new Semaphore(jobs);
+        List<Future<Result>> futures = new ArrayList<>();
+        ExecutorService executor = executor();
+        try {
+            for (int i = 0; i < inputs.size(); i++) {
+                Path[] files = inputs.get(i);
+                Path output = outputs.get(i);
+                futures.add(executor.submit(() -> runOne(job, files, output, running)));
+            }
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            writeSummary(results, outputDir.resolve("summary.tsv"));
+            return (int) results.stream().filter(r -> r.error != null).count();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static Result runOne(Job job, Path[] files, Path output, Semaphore running) throws InterruptedException {
+        running.acquire();
+        long start = System.nanoTime();
+        Result result;
+        try {
+            result = job.run(files, output);
+        } catch (IOException | RuntimeException e) {
+            result = new Result();
+            result.error = e.toString().replace('\t', ' ').replace('\n', ' ');
+        } finally {
+            running.release();
+        }
+        result.millis = (System.nanoTime() - start) / 1_000_000;
+        StringBuilder input = new StringBuilder();
+        for (Path file : files) {
+            input.append(input.length() == 0 ? "" : " ").append(file);
+        }
+        result.input = input.toString();
+        result.output = output.toString();
+        return result;
+    }
+
+    /**
+     * Virtual threads where the JVM has them, otherwise a fixed pool of platform threads.
+     * The semaphore in {@link #run} bounds the number of jobs working at the same time either way.
+     */
+    private ExecutorService executor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(jobs);
+        }
+    }
+
+    /**
+     * Reads the list of jobs from a directory or a manifest
+     */
+    List<Path[]> inputs(Path source) throws IOException {
+        List<Path[]> inputs = new ArrayList<>();
+        if (Files.isDirectory(source)) {
+            if (filesPerJob != 1) {
+                throw new IOException("Jobs of " + filesPerJob + " files need a manifest, not a directory: " + source);
+            }
+            for (Path file : structureFiles(source)) {
+                inputs.add(new Path[]{file});
+            }
+            return inputs;
+        }
+        Path base = source.toAbsolutePath().getParent();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(source)) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] names = line.split("\\s+");
+            if (names.length != filesPerJob) {
+                throw new IOException(source + ":" + lineNumber + ": expected " + filesPerJob + " file(s), found " + names.length);
+            }
+            Path[] files = new Path[filesPerJob];
+            for (int i = 0; i < filesPerJob; i++) {
+                files[i] = base.resolve(names[i]);
+            }
+            inputs.add(files);
+        }
+        return inputs;
+    }
+
+    /**
+     * @return the structure files (.pdb, .ent, .cif, .mmcif, .bcif, each possibly also .gz, .zst
+     * or .zstd) of a directory, sorted by name
+     */
+    public static List<Path> structureFiles(Path directory) throws IOException {
+        List<Path> structures = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(Files::isRegularFile)
+                    .filter(file -> isStructureFile(file.getFileName().toString()))
+                    .sorted()
+                    .forEach(structures::add);
+        }
+        return structures;
+    }
+
+    private static boolean isStructureFile(String name) {
+        String lower = CompressedInput.uncompressedName(name).toLowerCase(Locale.ROOT);
+        return lower.endsWith(".pdb") || lower.endsWith(".ent") || lower.endsWith(".cif") || lower.endsWith(".mmcif")
+                || lower.endsWith(".bcif");
+    }
+
+    /**
+     * Derives the output path of every job from the names of its inputs. Names used by an
+     * earlier job get the job number appended, so every job has its own file.
+     */
+    private List<Path> outputPaths(List<Path[]> inputs, Path outputDir) {
+        List<Path> outputs = new ArrayList<>();
+        Map<String, Integer> used = new HashMap<>();
+        for (int i = 0; i < inputs.size(); i++) {
+            StringBuilder name = new StringBuilder();
+            for (Path file : inputs.get(i)) {
+                name.append(name.length() == 0 ? "" : "_").append(stem(file));
+            }
+            String base = name.toString();
+            if (used.merge(base, 1, Integer::sum) > 1) {
+                base = base + "-" + (i + 1);
+            }
+            outputs.add(outputDir.resolve(base + extension));
+        }
+        return outputs;
+    }
+
+    /**
+     * File name without its extension
+     */
+    static String stem(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.indexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    private static void writeSummary(List<Result> results, Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.append("input\toutput\tatoms\tcontacts\tclashes\tbest_split\tmillis\tstatus");
+            writer.newLine();
+            for (Result result : results) {
+                writer.append(result.input).append('\t')
+                        .append(result.output).append('\t')
+                        .append(count(result.atoms)).append('\t')
+                        .append(count(result.contacts)).append('\t')
+                        .append(count(result.clashes)).append('\t')
+                        .append(count(result.bestSplit)).append('\t')
+                        .append(String.valueOf(result.millis)).append('\t')
+                        .append(result.error == null ? "ok" : result.error);
+                writer.newLine();
+            }
+        }
+    }
+
+    private static String count(long value) {
+        return value < 0 ? "-" : String.valueOf(value);
+    }
+}
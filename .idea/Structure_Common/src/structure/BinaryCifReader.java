@@ -0,0 +1,625 @@
+package structure;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reader for the _atom_site table of BinaryCIF files, the columnar binary form of mmCIF served by
+ * the PDB. The file is memory-mapped and walked as MessagePack without decoding what is not used:
+ * only the columns of _atom_site that {@link CifReader} reads are decoded, each as a whole column
+ * into a primitive array. Numbers are stored integer-packed (byte arrays, run-length, delta,
+ * integer packing, fixed point); strings as a table of distinct strings and an index per row, so a
+ * name is packed once per distinct string rather than once per atom.
+ * <p>
+ * Encodings: ByteArray, FixedPoint, IntervalQuantization, RunLength, Delta, IntegerPacking and
+ * StringArray, applied in reverse of the order listed with the data. A column's mask marks the
+ * rows whose value is . or ? (mask value 1 or 2).
+ */
+final class BinaryCifReader {
+
+    private final PdbReader filter;
+
+    /**
+     * @param filter the reader whose filter and entries the atoms go to
+     */
+    BinaryCifReader(PdbReader filter) {
+        this.filter = filter;
+    }
+
+    void read(Path file, PdbReader.Entries entries) throws IOException {
+        ByteBuffer buffer;
+        if (CompressedInput.isCompressed(file)) {
+            // The columns are found by offset, so the whole file is decompressed first
+            try (InputStream in = CompressedInput.open(file)) {
+                buffer = ByteBuffer.wrap(in.readAllBytes());
+            }
+        } else {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException("BinaryCIF file larger than 2 GB: " + file);
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+        MessagePack pack = new MessagePack(buffer);
+        if (!findKey(pack, "dataBlocks")) {
+            throw new IOException("No data blocks in BinaryCIF file " + file);
+        }
+        int blocks = pack.arrayHeader();
+        for (int b = 0; b < blocks; b++) {
+            int after = skipPosition(pack);
+            if (findKey(pack, "categories")) {
+                int categories = pack.arrayHeader();
+                for (int c = 0; c < categories; c++) {
+                    Category category = category(pack);
+                    if (category.name.equals("_atom_site") || category.name.equals("atom_site")) {
+                        readAtomSites(file, pack, category, entries);
+                        return;
+                    }
+                }
+            }
+            pack.position(after);
+        }
+        throw new IOException("No _atom_site category in BinaryCIF file " + file);
+    }
+
+    /**
+     * @return the position after the value at the cursor, leaving the cursor where it is
+     */
+    private static int skipPosition(MessagePack pack) throws IOException {
+        int start = pack.position();
+        pack.skip();
+        int after = pack.position();
+        pack.position(start);
+        return after;
+    }
+
+    /**
+     * Moves the cursor from the map at it to the value of a key
+     *
+     * @return false if the map has no such key, the cursor is then after the map
+     */
+    private static boolean findKey(MessagePack pack, String key) throws IOException {
+        int pairs = pack.mapHeader();
+        for (int p = 0; p < pairs; p++) {
+            if (pack.string().equals(key)) {
+                return true;
+            }
+            pack.skip();
+        }
+        return false;
+    }
+
+    /**
+     * A category of a data block: its name, row count and where its columns are
+     */
+    private static final class Category {
+        String name = "";
+        int rowCount = -1;
+        int columns = -1;
+    }
+
+    /**
+     * Reads the map of the category at the cursor, leaving the cursor after it
+     */
+    private static Category category(MessagePack pack) throws IOException {
+        Category category = new Category();
+        int pairs = pack.mapHeader();
+        for (int p = 0; p < pairs; p++) {
+            switch (pack.string()) {
+                case "name":
+                    category.name = pack.string();
+                    break;
+                case "rowCount":
+                    category.rowCount = (int) pack.integer();
+                    break;
+                case "columns":
+                    category.columns = pack.position();
+                    pack.skip();
+                    break;
+                default:
+                    pack.skip();
+            }
+        }
+        return category;
+    }
+
+    private void readAtomSites(Path file, MessagePack pack, Category category, PdbReader.Entries entries) throws IOException {
+        if (category.columns < 0 || category.rowCount < 0) {
+            throw new IOException("The _atom_site category of " + file + " has no columns or row count");
+        }
+        // Where the data and mask of every column used are, decoded only when needed
+        Map<String, int[]> found = new HashMap<>();
+        pack.position(category.columns);
+        int columns = pack.arrayHeader();
+        for (int c = 0; c < columns; c++) {
+            String name = null;
+            int data = -1;
+            int mask = -1;
+            int pairs = pack.mapHeader();
+            for (int p = 0; p < pairs; p++) {
+                switch (pack.string()) {
+                    case "name":
+                        name = pack.string();
+                        break;
+                    case "data":
+                        data = pack.position();
+                        pack.skip();
+                        break;
+                    case "mask":
+                        mask = pack.nil() ? -1 : pack.position();
+                        if (mask >= 0) {
+                            pack.skip();
+                        }
+                        break;
+                    default:
+                        pack.skip();
+                }
+            }
+            if (name != null && data >= 0) {
+                found.put(name, new int[]{data, mask});
+            }
+        }
+        int rows = category.rowCount;
+        Column x = column(pack, found, "Cartn_x", rows);
+        Column y = column(pack, found, "Cartn_y", rows);
+        Column z = column(pack, found, "Cartn_z", rows);
+        if (x == null || y == null || z == null) {
+            throw new IOException("The _atom_site category of " + file + " has no Cartn_x, Cartn_y and Cartn_z");
+        }
+        Column group = column(pack, found, "group_PDB", rows);
+        Column id = column(pack, found, "id", rows);
+        Column type = column(pack, found, "type_symbol", rows);
+        Column model = column(pack, found, "pdbx_PDB_model_num", rows);
+        Column[] atom = authorAndLabel(pack, found, "atom_id", rows);
+        Column[] comp = authorAndLabel(pack, found, "comp_id", rows);
+        Column[] asym = authorAndLabel(pack, found, "asym_id", rows);
+        Column[] seq = authorAndLabel(pack, found, "seq_id", rows);
+
+        AtomSites sites = new AtomSites(filter, entries);
+        for (int row = 0; row < rows; row++) {
+            if (!x.present(row) || !y.present(row) || !z.present(row)) {
+                throw new IOException("An _atom_site row of " + file + " has no coordinates");
+            }
+            Column name = pick(atom, row);
+            Column residue = pick(comp, row);
+            Column chain = pick(asym, row);
+            Column number = pick(seq, row);
+            sites.add(group != null && group.present(row) && group.string(row).equals("HETATM"),
+                    model != null && model.present(row) ? model.intAt(row) : 1,
+                    id != null && id.present(row) ? id.intAt(row) : 0,
+                    name == null ? 0 : name.code(row, false),
+                    residue == null ? 0 : residue.code(row, false),
+                    sites.chain(chain == null ? 0 : chain.code(row, false)),
+                    number == null ? 0 : number.intAt(row),
+                    x.doubleAt(row), y.doubleAt(row), z.doubleAt(row),
+                    type != null && type.present(row) ? type.code(row, true) : 0);
+        }
+    }
+
+    /**
+     * Decodes the author's column of a field, and the label column only when the author's is
+     * missing or has rows without a value
+     *
+     * @param field e.g. "atom_id" for auth_atom_id and label_atom_id
+     */
+    private static Column[] authorAndLabel(MessagePack pack, Map<String, int[]> found, String field, int rows) throws IOException {
+        Column author = column(pack, found, "auth_" + field, rows);
+        Column label = author == null || author.mask != null ? column(pack, found, "label_" + field, rows) : null;
+        return new Column[]{author, label};
+    }
+
+    /**
+     * @return the author's column if it has a value in the row, else the label column if that has, else null
+     */
+    private static Column pick(Column[] pair, int row) {
+        if (pair[0] != null && pair[0].present(row)) {
+            return pair[0];
+        }
+        return pair[1] != null && pair[1].present(row) ? pair[1] : null;
+    }
+
+    /**
+     * Decodes a column and its mask
+     *
+     * @return the column, null if the category has no such column
+     */
+    private static Column column(MessagePack pack, Map<String, int[]> found, String name, int rows) throws IOException {
+        int[] where = found.get(name);
+        if (where == null) {
+            return null;
+        }
+        pack.position(where[0]);
+        Column column = new Column(decode(pack), name);
+        if (where[1] >= 0) {
+            pack.position(where[1]);
+            Object mask = decode(pack);
+            if (!(mask instanceof int[])) {
+                throw new IOException("The mask of _atom_site." + name + " is not integers");
+            }
+            column.mask = (int[]) mask;
+        }
+        if (column.length() != rows || column.mask != null && column.mask.length != rows) {
+            throw new IOException("_atom_site." + name + " has " + column.length() + " values for " + rows + " rows");
+        }
+        return column;
+    }
+
+    /**
+     * Decodes the encoded data map at the cursor
+     *
+     * @return an int[], a double[] or a Strings
+     */
+    private static Object decode(MessagePack pack) throws IOException {
+        ByteBuffer bytes = null;
+        List<Encoding> encodings = null;
+        int pairs = pack.mapHeader();
+        for (int p = 0; p < pairs; p++) {
+            switch (pack.string()) {
+                case "data":
+                    bytes = pack.binary();
+                    break;
+                case "encoding":
+                    encodings = encodings(pack);
+                    break;
+                default:
+                    pack.skip();
+            }
+        }
+        if (bytes == null || encodings == null) {
+            throw new IOException("Encoded data without data or encoding");
+        }
+        return decode(bytes, encodings);
+    }
+
+    private static Object decode(ByteBuffer bytes, List<Encoding> encodings) throws IOException {
+        Object data = bytes;
+        for (int e = encodings.size() - 1; e >= 0; e--) {
+            data = encodings.get(e).decode(data);
+        }
+        if (data instanceof ByteBuffer) {
+            throw new IOException("Encoded data without a ByteArray or StringArray encoding");
+        }
+        return data;
+    }
+
+    private static List<Encoding> encodings(MessagePack pack) throws IOException {
+        int count = pack.arrayHeader();
+        List<Encoding> encodings = new ArrayList<>(count);
+        for (int e = 0; e < count; e++) {
+            encodings.add(encoding(pack));
+        }
+        return encodings;
+    }
+
+    private static Encoding encoding(MessagePack pack) throws IOException {
+        Encoding encoding = new Encoding();
+        int pairs = pack.mapHeader();
+        for (int p = 0; p < pairs; p++) {
+            String key = pack.string();
+            if (pack.nil()) {
+                continue;
+            }
+            switch (key) {
+                case "kind":
+                    encoding.kind = pack.string();
+                    break;
+                case "type":
+                    encoding.type = (int) pack.integer();
+                    break;
+                case "srcSize":
+                    encoding.srcSize = (int) pack.integer();
+                    break;
+                case "byteCount":
+                    encoding.byteCount = (int) pack.integer();
+                    break;
+                case "isUnsigned":
+                    encoding.isUnsigned = pack.bool();
+                    break;
+                case "origin":
+                    encoding.origin = (int) pack.integer();
+                    break;
+                case "factor":
+                    encoding.factor = pack.number();
+                    break;
+                case "min":
+                    encoding.min = pack.number();
+                    break;
+                case "max":
+                    encoding.max = pack.number();
+                    break;
+                case "numSteps":
+                    encoding.numSteps = (int) pack.integer();
+                    break;
+                case "stringData":
+                    encoding.stringData = pack.string();
+                    break;
+                case "offsets":
+                    encoding.offsets = pack.binary();
+                    break;
+                case "dataEncoding":
+                    encoding.dataEncoding = encodings(pack);
+                    break;
+                case "offsetEncoding":
+                    encoding.offsetEncoding = encodings(pack);
+                    break;
+                default:
+                    pack.skip();
+            }
+        }
+        return encoding;
+    }
+
+    /**
+     * One step of the encoding of a column, with the parameters of its kind
+     */
+    private static final class Encoding {
+        String kind = "";
+        int type;
+        int srcSize;
+        int byteCount;
+        boolean isUnsigned;
+        int origin;
+        double factor;
+        double min;
+        double max;
+        int numSteps;
+        String stringData;
+        ByteBuffer offsets;
+        List<Encoding> dataEncoding;
+        List<Encoding> offsetEncoding;
+
+        Object decode(Object data) throws IOException {
+            switch (kind) {
+                case "ByteArray":
+                    return byteArray(bytes(data));
+                case "FixedPoint": {
+                    int[] values = ints(data);
+                    double[] decoded = new double[values.length];
+                    for (int i = 0; i < values.length; i++) {
+                        decoded[i] = values[i] / factor;
+                    }
+                    return decoded;
+                }
+                case "IntervalQuantization": {
+                    int[] values = ints(data);
+                    double[] decoded = new double[values.length];
+                    double step = numSteps > 1 ? (max - min) / (numSteps - 1) : 0;
+                    for (int i = 0; i < values.length; i++) {
+                        decoded[i] = min + step * values[i];
+                    }
+                    return decoded;
+                }
+                case "RunLength": {
+                    int[] values = ints(data);
+                    int[] decoded = new int[srcSize];
+                    int at = 0;
+                    for (int i = 0; i + 1 < values.length; i += 2) {
+                        if (values[i + 1] < 0 || at + values[i + 1] > srcSize) {
+                            throw new IOException("RunLength runs longer than its " + srcSize + " values");
+                        }
+                        Arrays.fill(decoded, at, at + values[i + 1], values[i]);
+                        at += values[i + 1];
+                    }
+                    return decoded;
+                }
+                case "Delta": {
+                    int[] values = ints(data);
+                    int[] decoded = new int[values.length];
+                    int previous = origin;
+                    for (int i = 0; i < values.length; i++) {
+                        previous += values[i];
+                        decoded[i] = previous;
+                    }
+                    return decoded;
+                }
+                case "IntegerPacking":
+                    return integerPacking(ints(data));
+                case "StringArray": {
+                    Object indices = BinaryCifReader.decode(bytes(data), dataEncoding);
+                    Object starts = BinaryCifReader.decode(offsets, offsetEncoding);
+                    if (!(indices instanceof int[]) || !(starts instanceof int[])) {
+                        throw new IOException("StringArray indices or offsets are not integers");
+                    }
+                    int[] bounds = (int[]) starts;
+                    String[] strings = new String[Math.max(bounds.length - 1, 0)];
+                    for (int s = 0; s < strings.length; s++) {
+                        strings[s] = stringData.substring(bounds[s], bounds[s + 1]);
+                    }
+                    return new Strings(strings, (int[]) indices);
+                }
+                default:
+                    throw new IOException("Unknown BinaryCIF encoding " + kind);
+            }
+        }
+
+        private Object byteArray(ByteBuffer bytes) throws IOException {
+            switch (type) {
+                case 1:
+                case 4: {
+                    int[] values = new int[bytes.remaining()];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = type == 1 ? bytes.get(i) : bytes.get(i) & 0xFF;
+                    }
+                    return values;
+                }
+                case 2:
+                case 5: {
+                    int[] values = new int[bytes.remaining() / 2];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = type == 2 ? bytes.getShort(2 * i) : bytes.getShort(2 * i) & 0xFFFF;
+                    }
+                    return values;
+                }
+                case 3:
+                case 6: {
+                    int[] values = new int[bytes.remaining() / 4];
+                    bytes.asIntBuffer().get(values);
+                    return values;
+                }
+                case 32: {
+                    double[] values = new double[bytes.remaining() / 4];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = bytes.getFloat(4 * i);
+                    }
+                    return values;
+                }
+                case 33: {
+                    double[] values = new double[bytes.remaining() / 8];
+                    bytes.asDoubleBuffer().get(values);
+                    return values;
+                }
+                default:
+                    throw new IOException("Unknown BinaryCIF ByteArray type " + type);
+            }
+        }
+
+        /**
+         * Undoes integer packing: values too large for the packed type were stored as runs of
+         * its limit followed by the remainder
+         */
+        private int[] integerPacking(int[] packed) throws IOException {
+            int upper = isUnsigned ? (byteCount == 1 ? 0xFF : 0xFFFF) : (byteCount == 1 ? 0x7F : 0x7FFF);
+            int lower = -upper - 1;
+            int[] decoded = new int[srcSize];
+            int j = 0;
+            for (int i = 0; i < srcSize; i++) {
+                int value = 0;
+                while (j < packed.length && (packed[j] == upper || !isUnsigned && packed[j] == lower)) {
+                    value += packed[j++];
+                }
+                if (j == packed.length) {
+                    throw new IOException("IntegerPacking has fewer values than its " + srcSize);
+                }
+                decoded[i] = value + packed[j++];
+            }
+            return decoded;
+        }
+
+        private static ByteBuffer bytes(Object data) throws IOException {
+            if (!(data instanceof ByteBuffer)) {
+                throw new IOException("BinaryCIF encoding applied to decoded values");
+            }
+            return (ByteBuffer) data;
+        }
+
+        private static int[] ints(Object data) throws IOException {
+            if (!(data instanceof int[])) {
+                throw new IOException("BinaryCIF encoding applied to values that are not integers");
+            }
+            return (int[]) data;
+        }
+    }
+
+    /**
+     * Decoded strings: the distinct strings and the index of the string of every row, -1 for none
+     */
+    private static final class Strings {
+        final String[] strings;
+        final int[] indices;
+
+        Strings(String[] strings, int[] indices) {
+            this.strings = strings;
+            this.indices = indices;
+        }
+    }
+
+    /**
+     * A decoded column of numbers or strings, read by row
+     */
+    private static final class Column {
+        private final String name;
+        private final int[] ints;
+        private final double[] doubles;
+        private final Strings strings;
+        private int[] codes;
+        private boolean upperCodes;
+        int[] mask;
+
+        Column(Object data, String name) {
+            this.name = name;
+            ints = data instanceof int[] ? (int[]) data : null;
+            doubles = data instanceof double[] ? (double[]) data : null;
+            strings = data instanceof Strings ? (Strings) data : null;
+        }
+
+        int length() {
+            return ints != null ? ints.length : doubles != null ? doubles.length : strings.indices.length;
+        }
+
+        boolean present(int row) {
+            return (mask == null || mask[row] == 0) && (strings == null || strings.indices[row] >= 0);
+        }
+
+        String string(int row) {
+            if (strings != null) {
+                return strings.strings[strings.indices[row]];
+            }
+            return ints != null ? String.valueOf(ints[row]) : String.valueOf(doubles[row]);
+        }
+
+        int intAt(int row) throws IOException {
+            if (ints != null) {
+                return ints[row];
+            }
+            if (doubles != null) {
+                return (int) doubles[row];
+            }
+            try {
+                return Integer.parseInt(string(row).trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("_atom_site." + name + " is not an integer: " + string(row));
+            }
+        }
+
+        double doubleAt(int row) throws IOException {
+            if (doubles != null) {
+                return doubles[row];
+            }
+            if (ints != null) {
+                return ints[row];
+            }
+            try {
+                return Double.parseDouble(string(row).trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("_atom_site." + name + " is not a number: " + string(row));
+            }
+        }
+
+        /**
+         * @return the packed code of every distinct string, see {@link AtomSites#pack(String, boolean)}
+         */
+        int[] codes(boolean upper) {
+            if (strings == null) {
+                return null;
+            }
+            if (codes == null || upperCodes != upper) {
+                codes = new int[strings.strings.length];
+                for (int s = 0; s < codes.length; s++) {
+                    codes[s] = AtomSites.pack(strings.strings[s], upper);
+                }
+                upperCodes = upper;
+            }
+            return codes;
+        }
+
+        /**
+         * @return the value of a row packed like a name
+         */
+        int code(int row, boolean upper) {
+            if (strings != null) {
+                return codes(upper)[strings.indices[row]];
+            }
+            return AtomSites.pack(string(row), upper);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package structure;
+
+/**
+ * Uniform grid (cell list) over a set of points. The points are sorted by cell so that the
+ * atoms of one cell are stored next to each other, which lets a query only look at the
+ * 27 cells around a position instead of at every point.
+ * <p>
+ * With a cell size of at least the search radius every point within that radius of a query
+ * position is found in those 27 cells.
+ * <p>
+ * The pairs of points within that radius of each other are found by {@link #visitPairs}, which
+ * walks half of the shell around every cell so that each pair is visited once.
+ */
+public final class CellGrid {
+
+    /**
+     * Upper bound on the number of cells, the cell size is enlarged for very sparse inputs
+     */
+    private static final long MAX_CELLS = 1L << 24;
+
+    /**
+     * Callback for the points near a query position
+     */
+    public interface Visitor {
+        /**
+         * @param point index of the point in the arrays the grid was built from
+         * @return false to stop the search
+         */
+        boolean visit(int point);
+    }
+
+    /**
+     * Callback for the pairs of points in the same or adjacent cells
+     */
+    public interface PairVisitor {
+        /**
+         * @param i index of one point in the arrays the grid was built from
+         * @param j index of the other point
+         */
+        void visit(int i, int j);
+    }
+
+    /**
+     * Offsets (dx, dy, dz) of the 13 neighbours of a cell that come after it in cell order; the
+     * other 13 see the cell as one of theirs
+     */
+    private static final int[][] HALF_SHELL = {
+            {1, 0, 0},
+            {-1, 1, 0}, {0, 1, 0}, {1, 1, 0},
+            {-1, -1, 1}, {0, -1, 1}, {1, -1, 1},
+            {-1, 0, 1}, {0, 0, 1}, {1, 0, 1},
+            {-1, 1, 1}, {0, 1, 1}, {1, 1, 1}};
+
+    private final double cellSize;
+    private final double minX, minY, minZ;
+    private final int nx, ny, nz;
+    /**
+     * Points of cell c are cellPoints[cellStart[c]] to cellPoints[cellStart[c + 1] - 1]
+     */
+    private final int[] cellStart;
+    private final int[] cellPoints;
+
+    /**
+     * Builds a grid over the first n points of the coordinate arrays
+     *
+     * @param cellSize edge length of a cell, normally the search radius
+     */
+    public CellGrid(double[] x, double[] y, double[] z, int n, double cellSize) {
+        this(i -> x[i], i -> y[i], i -> z[i], n, cellSize);
+    }
+
+    /**
+     * Builds a grid over the atoms of a table or store
+     */
+    public static CellGrid of(Atoms atoms, double cellSize) {
+        return new CellGrid(atoms::x, atoms::y, atoms::z, atoms.size(), cellSize);
+    }
+
+    /**
+     * One coordinate of every point
+     */
+    private interface Coordinate {
+        double of(int point);
+    }
+
+    private CellGrid(Coordinate x, Coordinate y, Coordinate z, int n, double cellSize) {
+        double loX = Double.POSITIVE_INFINITY, loY = Double.POSITIVE_INFINITY, loZ = Double.POSITIVE_INFINITY;
+        double hiX = Double.NEGATIVE_INFINITY, hiY = Double.NEGATIVE_INFINITY, hiZ = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            loX = Math.min(loX, x.of(i));
+            loY = Math.min(loY, y.of(i));
+            loZ = Math.min(loZ, z.of(i));
+            hiX = Math.max(hiX, x.of(i));
+            hiY = Math.max(hiY, y.of(i));
+            hiZ = Math.max(hiZ, z.of(i));
+        }
+        if (n == 0) {
+            loX = loY = loZ = hiX = hiY = hiZ = 0;
+        }
+        while (cells(hiX - loX, cellSize) * cells(hiY - loY, cellSize) * cells(hiZ - loZ, cellSize) > MAX_CELLS) {
+            cellSize *= 2;
+        }
+        this.cellSize = cellSize;
+        minX = loX;
+        minY = loY;
+        minZ = loZ;
+        nx = (int) cells(hiX - loX, cellSize);
+        ny = (int) cells(hiY - loY, cellSize);
+        nz = (int) cells(hiZ - loZ, cellSize);
+
+        // Counting sort of the points by cell
+        int[] cellOf = new int[n];
+        cellStart = new int[nx * ny * nz + 1];
+        for (int i = 0; i < n; i++) {
+            cellOf[i] = cell(index(x.of(i), minX, nx), index(y.of(i), minY, ny), index(z.of(i), minZ, nz));
+            cellStart[cellOf[i] + 1]++;
+        }
+        for (int c = 0; c < nx * ny * nz; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        int[] next = new int[nx * ny * nz];
+        System.arraycopy(cellStart, 0, next, 0, next.length);
+        cellPoints = new int[n];
+        for (int i = 0; i < n; i++) {
+            cellPoints[next[cellOf[i]]++] = i;
+        }
+    }
+
+    private static long cells(double extent, double cellSize) {
+        return (long) (extent / cellSize) + 1;
+    }
+
+    private int index(double value, double min, int cells) {
+        int i = (int) Math.floor((value - min) / cellSize);
+        return i < 0 ? 0 : Math.min(i, cells - 1);
+    }
+
+    private int cell(int ix, int iy, int iz) {
+        return (iz * ny + iy) * nx + ix;
+    }
+
+    public double cellSize() {
+        return cellSize;
+    }
+
+    /**
+     * Visits the points in the 27 cells around a position, stopping early if the visitor returns false.
+     * Points are visited cell by cell, so the visitor must do its own distance test.
+     *
+     * @return false if the visitor stopped the search
+     */
+    public boolean visitNeighbours(double x, double y, double z, Visitor visitor) {
+        int ix = (int) Math.floor((x - minX) / cellSize);
+        int iy = (int) Math.floor((y - minY) / cellSize);
+        int iz = (int) Math.floor((z - minZ) / cellSize);
+        for (int cz = Math.max(iz - 1, 0); cz <= Math.min(iz + 1, nz - 1); cz++) {
+            for (int cy = Math.max(iy - 1, 0); cy <= Math.min(iy + 1, ny - 1); cy++) {
+                for (int cx = Math.max(ix - 1, 0); cx <= Math.min(ix + 1, nx - 1); cx++) {
+                    int c = cell(cx, cy, cz);
+                    for (int k = cellStart[c]; k < cellStart[c + 1]; k++) {
+                        if (!visitor.visit(cellPoints[k])) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of cells, the bound of the cell ranges of {@link #visitPairs}
+     */
+    public int cellCount() {
+        return nx * ny * nz;
+    }
+
+    /**
+     * @return the number of points in the cells from to to
+     */
+    public int points(int fromCell, int toCell) {
+        return cellStart[toCell] - cellStart[fromCell];
+    }
+
+    /**
+     * Visits every pair of points of which one lies in the cells from to to and the other in the
+     * same or an adjacent cell, each pair once: the pairs within a cell and those with the 13
+     * cells of the half shell ahead of it. Disjoint cell ranges visit disjoint pairs, so the
+     * ranges can be walked on separate threads. Pairs are visited cell by cell, so the visitor
+     * must do its own distance test.
+     */
+    public void visitPairs(int fromCell, int toCell, PairVisitor visitor) {
+        for (int c = fromCell; c < toCell; c++) {
+            int start = cellStart[c];
+            int end = cellStart[c + 1];
+            if (start == end) {
+                continue;
+            }
+            for (int k = start; k < end; k++) {
+                for (int l = k + 1; l < end; l++) {
+                    visitor.visit(cellPoints[k], cellPoints[l]);
+                }
+            }
+            int ix = c % nx;
+            int iy = (c / nx) % ny;
+            int iz = c / (nx * ny);
+            for (int[] offset : HALF_SHELL) {
+                int cx = ix + offset[0];
+                int cy = iy + offset[1];
+                int cz = iz + offset[2];
+                if (cx < 0 || cx >= nx || cy < 0 || cy >= ny || cz >= nz) {
+                    continue;
+                }
+                int d = cell(cx, cy, cz);
+                for (int k = start; k < end; k++) {
+                    int i = cellPoints[k];
+                    for (int l = cellStart[d]; l < cellStart[d + 1]; l++) {
+                        visitor.visit(i, cellPoints[l]);
+                    }
+                }
+            }
+        }
+    }
+}
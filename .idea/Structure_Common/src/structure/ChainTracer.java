@@ -0,0 +1,163 @@
+package structure;
+
+/**
+ * Orders the alpha carbons of a chain by peeling endpoints off the CA-CA neighbour graph.
+ * <p>
+ * Two alpha carbons are neighbours when their distance lies strictly inside the window of
+ * a CA-CA bond. The graph is built once with a cell grid; the ordering then removes one
+ * endpoint (an atom with at most one remaining neighbour) per step and only updates the
+ * neighbours of the removed atom, so the whole trace is O(N log N) instead of the O(N³)
+ * of recounting every neighbour at every step.
+ * <p>
+ * The order is the one MainChainTracing always produced: of all endpoints the one that
+ * comes last in the input is removed, except when three atoms are left, where the first
+ * remaining atom is removed.
+ */
+public final class ChainTracer {
+
+    public static final double MIN_DISTANCE = 3.780033465;
+    public static final double MAX_DISTANCE = 3.857441898;
+    /**
+     * Entry of {@link #order()} for a step where no endpoint was left
+     */
+    public static final int NO_ENDPOINT = -1;
+
+    private final int n;
+    /**
+     * Neighbours of atom a are neighbours[start[a]] to neighbours[start[a + 1] - 1]
+     */
+    private final int[] start;
+    private final int[] neighbours;
+
+    /**
+     * Builds the neighbour graph of the atoms of a table
+     */
+    public ChainTracer(AtomTable atoms) {
+        n = atoms.size();
+        CellGrid grid = CellGrid.of(atoms, MAX_DISTANCE);
+        start = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            final int a = i;
+            grid.visitNeighbours(atoms.x(a), atoms.y(a), atoms.z(a), b -> {
+                if (isNeighbour(atoms, a, b)) {
+                    start[a + 1]++;
+                }
+                return true;
+            });
+        }
+        for (int i = 0; i < n; i++) {
+            start[i + 1] += start[i];
+        }
+        neighbours = new int[start[n]];
+        int[] next = new int[n];
+        System.arraycopy(start, 0, next, 0, n);
+        for (int i = 0; i < n; i++) {
+            final int a = i;
+            grid.visitNeighbours(atoms.x(a), atoms.y(a), atoms.z(a), b -> {
+                if (isNeighbour(atoms, a, b)) {
+                    neighbours[next[a]++] = b;
+                }
+                return true;
+            });
+        }
+    }
+
+    private static boolean isNeighbour(AtomTable atoms, int a, int b) {
+        if (a == b) {
+            return false;
+        }
+        double distance = atoms.distance(a, b);
+        return distance > MIN_DISTANCE && distance < MAX_DISTANCE;
+    }
+
+    public int size() {
+        return n;
+    }
+
+    /**
+     * @return the number of neighbours of an atom in the whole chain
+     */
+    public int degree(int atom) {
+        return start[atom + 1] - start[atom];
+    }
+
+    /**
+     * Removes the atoms one at a time, see the class comment
+     *
+     * @return the index of the atom removed at every step, {@link #NO_ENDPOINT} for a step where
+     * no atom could be removed (every later step then has no endpoint either)
+     */
+    public int[] order() {
+        int[] order = new int[n];
+        int[] degree = new int[n];
+        boolean[] removed = new boolean[n];
+        // Max-heap of the endpoints; an atom becomes an endpoint once and stays one, removed
+        // atoms are dropped when they come to the top
+        int[] endpoints = new int[n];
+        int numEndpoints = 0;
+        for (int a = 0; a < n; a++) {
+            degree[a] = degree(a);
+            if (degree[a] <= 1) {
+                numEndpoints = push(endpoints, numEndpoints, a);
+            }
+        }
+        int first = 0;
+        int numRemaining = n;
+        for (int step = 0; step < n; step++) {
+            while (numEndpoints > 0 && removed[endpoints[0]]) {
+                numEndpoints = pop(endpoints, numEndpoints);
+            }
+            int atom;
+            if (numRemaining == 3) {
+                while (removed[first]) {
+                    first++;
+                }
+                atom = first;
+            } else if (numEndpoints > 0) {
+                atom = endpoints[0];
+                numEndpoints = pop(endpoints, numEndpoints);
+            } else {
+                order[step] = NO_ENDPOINT;
+                continue;
+            }
+            order[step] = atom;
+            removed[atom] = true;
+            numRemaining--;
+            for (int k = start[atom]; k < start[atom + 1]; k++) {
+                int b = neighbours[k];
+                if (!removed[b] && --degree[b] == 1) {
+                    numEndpoints = push(endpoints, numEndpoints, b);
+                }
+            }
+        }
+        return order;
+    }
+
+    private static int push(int[] heap, int size, int value) {
+        int i = size;
+        while (i > 0 && heap[(i - 1) / 2] < value) {
+            heap[i] = heap[(i - 1) / 2];
+            i = (i - 1) / 2;
+        }
+        heap[i] = value;
+        return size + 1;
+    }
+
+    private static int pop(int[] heap, int size) {
+        int value = heap[--size];
+        int i = 0;
+        while (2 * i + 1 < size) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && heap[child + 1] > heap[child]) {
+                child++;
+            }
+            if (heap[child] <= value) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = value;
+        return size;
+    }
+}
@@ -0,0 +1,368 @@
+package structure;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming reader for the _atom_site loop of mmCIF files, the format large assemblies (over
+ * 99,999 atoms or 62 chains) are only distributed in. The file is read through a buffer one line
+ * at a time and the loop split into tokens in place; only the values of the columns used are
+ * kept for a row, numbers are parsed from their bytes, and the file is not read past the loop.
+ * A compressed file (.cif.gz) is decompressed on another thread as it is read.
+ * <p>
+ * Columns used: group_PDB, id, type_symbol, auth_atom_id, auth_comp_id, auth_asym_id and
+ * auth_seq_id (each falling back to its label_ column, as the PDB format holds the author's
+ * names), Cartn_x, Cartn_y, Cartn_z and pdbx_PDB_model_num.
+ */
+final class CifReader {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String CATEGORY = "_atom_site.";
+
+    private static final int GROUP = 0;
+    private static final int ID = 1;
+    private static final int TYPE_SYMBOL = 2;
+    private static final int AUTH_ATOM = 3;
+    private static final int LABEL_ATOM = 4;
+    private static final int AUTH_COMP = 5;
+    private static final int LABEL_COMP = 6;
+    private static final int AUTH_ASYM = 7;
+    private static final int LABEL_ASYM = 8;
+    private static final int AUTH_SEQ = 9;
+    private static final int LABEL_SEQ = 10;
+    private static final int X = 11;
+    private static final int Y = 12;
+    private static final int Z = 13;
+    private static final int MODEL = 14;
+    private static final String[] TAGS = {"group_PDB", "id", "type_symbol", "auth_atom_id", "label_atom_id",
+            "auth_comp_id", "label_comp_id", "auth_asym_id", "label_asym_id", "auth_seq_id", "label_seq_id",
+            "Cartn_x", "Cartn_y", "Cartn_z", "pdbx_PDB_model_num"};
+    private static final byte[] HETATM = "HETATM".getBytes(StandardCharsets.US_ASCII);
+
+    private final PdbReader filter;
+
+    private InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private byte[] line = new byte[256];
+    private int lineLength;
+
+    /**
+     * The values of the used columns of the row being read, by field
+     */
+    private byte[] values = new byte[256];
+    private int valuesLength;
+    private final int[] start = new int[TAGS.length];
+    private final int[] end = new int[TAGS.length];
+    private final boolean[] present = new boolean[TAGS.length];
+
+    /**
+     * @param filter the reader whose filter and entries the atoms go to
+     */
+    CifReader(PdbReader filter) {
+        this.filter = filter;
+    }
+
+    void read(Path file, PdbReader.Entries entries) throws IOException {
+        try (InputStream in = CompressedInput.open(file)) {
+            this.in = in;
+            AtomSites sites = new AtomSites(filter, entries);
+            // The tags of the loop being read, null outside a loop header
+            List<String> tags = null;
+            while (readLine()) {
+                if (lineLength > 0 && line[0] == ';') {
+                    skipTextField();
+                    continue;
+                }
+                int from = skipBlanks(0);
+                if (from == lineLength || line[from] == '#') {
+                    continue;
+                }
+                if (startsWith(from, "loop_")) {
+                    tags = new ArrayList<>();
+                } else if (tags != null && line[from] == '_') {
+                    tags.add(new String(line, from, tokenEnd(from) - from, StandardCharsets.US_ASCII));
+                } else if (tags != null && !tags.isEmpty() && tags.get(0).startsWith(CATEGORY)) {
+                    readTable(file, tags, from, sites);
+                    return;
+                } else {
+                    tags = null;
+                }
+            }
+        }
+        throw new IOException("No _atom_site loop in mmCIF file " + file);
+    }
+
+    /**
+     * Reads the rows of the _atom_site loop, starting with the current line, until the next
+     * tag, loop or data block
+     */
+    private void readTable(Path file, List<String> tags, int from, AtomSites sites) throws IOException {
+        int columns = tags.size();
+        int[] fields = new int[columns];
+        boolean[] found = new boolean[TAGS.length];
+        for (int c = 0; c < columns; c++) {
+            String tag = tags.get(c);
+            fields[c] = tag.startsWith(CATEGORY) ? Arrays.asList(TAGS).indexOf(tag.substring(CATEGORY.length())) : -1;
+            if (fields[c] >= 0) {
+                found[fields[c]] = true;
+            }
+        }
+        if (!found[X] || !found[Y] || !found[Z]) {
+            throw new IOException("The _atom_site loop of " + file + " has no Cartn_x, Cartn_y and Cartn_z");
+        }
+        int column = 0;
+        beginRow();
+        do {
+            if (lineLength > 0 && line[0] == ';') {
+                // A text field of several lines, never one of the columns used
+                skipTextField();
+                if (++column == columns) {
+                    addRow(file, sites);
+                    column = 0;
+                }
+                from = 0;
+                continue;
+            }
+            int i = from;
+            while (true) {
+                i = skipBlanks(i);
+                if (i == lineLength || line[i] == '#') {
+                    break;
+                }
+                byte first = line[i];
+                int tokenStart;
+                int tokenEnd;
+                boolean quoted = first == '\'' || first == '"';
+                if (quoted) {
+                    tokenStart = i + 1;
+                    tokenEnd = closingQuote(tokenStart, first);
+                    i = Math.min(tokenEnd + 1, lineLength);
+                } else {
+                    tokenStart = i;
+                    tokenEnd = tokenEnd(i);
+                    if (column == 0 && (first == '_' || startsWith(i, "loop_") || startsWith(i, "data_")
+                            || startsWith(i, "save_") || startsWith(i, "global_") || startsWith(i, "stop_"))) {
+                        return;
+                    }
+                    i = tokenEnd;
+                }
+                if (fields[column] >= 0) {
+                    value(fields[column], tokenStart, tokenEnd, quoted);
+                }
+                if (++column == columns) {
+                    addRow(file, sites);
+                    column = 0;
+                }
+            }
+            from = 0;
+        } while (readLine());
+        if (column != 0) {
+            throw new IOException("The last _atom_site row of " + file + " is incomplete");
+        }
+    }
+
+    private void beginRow() {
+        valuesLength = 0;
+        Arrays.fill(present, false);
+    }
+
+    /**
+     * Keeps the value of a used column; the unquoted values . and ? stand for none
+     */
+    private void value(int field, int from, int to, boolean quoted) {
+        if (!quoted && to - from == 1 && (line[from] == '.' || line[from] == '?')) {
+            return;
+        }
+        if (valuesLength + to - from > values.length) {
+            values = Arrays.copyOf(values, Math.max(values.length * 2, valuesLength + to - from));
+        }
+        System.arraycopy(line, from, values, valuesLength, to - from);
+        start[field] = valuesLength;
+        valuesLength += to - from;
+        end[field] = valuesLength;
+        present[field] = true;
+    }
+
+    private void addRow(Path file, AtomSites sites) throws IOException {
+        if (!present[X] || !present[Y] || !present[Z]) {
+            throw new IOException("An _atom_site row of " + file + " has no coordinates");
+        }
+        int name = field(AUTH_ATOM, LABEL_ATOM);
+        int residue = field(AUTH_COMP, LABEL_COMP);
+        int asym = field(AUTH_ASYM, LABEL_ASYM);
+        int seq = field(AUTH_SEQ, LABEL_SEQ);
+        sites.add(isHetatm(),
+                present[MODEL] ? parseInt(MODEL) : 1,
+                present[ID] ? parseInt(ID) : 0,
+                name < 0 ? 0 : AtomSites.pack(values, start[name], end[name], false),
+                residue < 0 ? 0 : AtomSites.pack(values, start[residue], end[residue], false),
+                sites.chain(asym < 0 ? 0 : AtomSites.pack(values, start[asym], end[asym], false)),
+                seq < 0 ? 0 : parseInt(seq),
+                parseDecimal(X), parseDecimal(Y), parseDecimal(Z),
+                present[TYPE_SYMBOL] ? AtomSites.pack(values, start[TYPE_SYMBOL], end[TYPE_SYMBOL], true) : 0);
+        beginRow();
+    }
+
+    /**
+     * @return the author's field if the row has it, else the label field, -1 if neither
+     */
+    private int field(int auth, int label) {
+        return present[auth] ? auth : present[label] ? label : -1;
+    }
+
+    private boolean isHetatm() {
+        return present[GROUP] && Arrays.equals(values, start[GROUP], end[GROUP], HETATM, 0, HETATM.length);
+    }
+
+    private int parseInt(int field) {
+        int value = 0;
+        boolean negative = false;
+        for (int i = start[field]; i < end[field]; i++) {
+            byte b = values[i];
+            if (b == '-') {
+                negative = true;
+            } else if (b >= '0' && b <= '9') {
+                value = value * 10 + (b - '0');
+            }
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a decimal such as "-12.345" like Double.parseDouble, the common fixed-point form
+     * without building a String
+     */
+    private double parseDecimal(int field) throws IOException {
+        long mantissa = 0;
+        int decimals = -1;
+        int digits = 0;
+        boolean negative = false;
+        for (int i = start[field]; i < end[field]; i++) {
+            byte b = values[i];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            } else if (b == '.' && decimals < 0) {
+                decimals = 0;
+            } else if (b == '-' && i == start[field]) {
+                negative = true;
+            } else if (!(b == '+' && i == start[field])) {
+                return parseDouble(field);
+            }
+        }
+        if (digits > 18) {
+            return parseDouble(field);
+        }
+        double value = decimals > 0 ? mantissa / PdbReader.POWERS_OF_TEN[decimals] : mantissa;
+        return negative ? -value : value;
+    }
+
+    private double parseDouble(int field) throws IOException {
+        String text = new String(values, start[field], end[field] - start[field], StandardCharsets.US_ASCII);
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw new IOException("Not a coordinate: " + text);
+        }
+    }
+
+    /**
+     * Reads the next line into line, without its line break
+     *
+     * @return false at the end of the file
+     */
+    private boolean readLine() throws IOException {
+        lineLength = 0;
+        boolean read = false;
+        while (true) {
+            if (position == limit) {
+                int count = in.read(buffer);
+                position = 0;
+                limit = Math.max(count, 0);
+                if (count < 0) {
+                    return read;
+                }
+                continue;
+            }
+            read = true;
+            int newline = position;
+            while (newline < limit && buffer[newline] != '\n') {
+                newline++;
+            }
+            if (lineLength + newline - position > line.length) {
+                line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + newline - position));
+            }
+            System.arraycopy(buffer, position, line, lineLength, newline - position);
+            lineLength += newline - position;
+            if (newline < limit) {
+                position = newline + 1;
+                if (lineLength > 0 && line[lineLength - 1] == '\r') {
+                    lineLength--;
+                }
+                return true;
+            }
+            position = limit;
+        }
+    }
+
+    /**
+     * Skips the lines of a text field up to the line starting with the closing semicolon
+     */
+    private void skipTextField() throws IOException {
+        while (readLine()) {
+            if (lineLength > 0 && line[0] == ';') {
+                return;
+            }
+        }
+    }
+
+    private int skipBlanks(int i) {
+        while (i < lineLength && (line[i] == ' ' || line[i] == '\t')) {
+            i++;
+        }
+        return i;
+    }
+
+    private int tokenEnd(int i) {
+        while (i < lineLength && line[i] != ' ' && line[i] != '\t') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return the position of the quote that closes a quoted value: the next one followed by a
+     * blank or the end of the line, else the end of the line
+     */
+    private int closingQuote(int i, byte quote) {
+        for (; i < lineLength; i++) {
+            if (line[i] == quote && (i + 1 == lineLength || line[i + 1] == ' ' || line[i + 1] == '\t')) {
+                return i;
+            }
+        }
+        return lineLength;
+    }
+
+    private boolean startsWith(int i, String keyword) {
+        if (lineLength - i < keyword.length()) {
+            return false;
+        }
+        for (int k = 0; k < keyword.length(); k++) {
+            int c = line[i + k];
+            if ((c >= 'A' && c <= 'Z' ? c - 'A' + 'a' : c) != keyword.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
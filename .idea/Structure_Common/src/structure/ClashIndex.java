@@ -0,0 +1,112 @@
+package structure;
+
+import java.util.Arrays;
+
+/**
+ * Atoms of a structure (e.g. a receptor) indexed for clash checks against the atoms of another.
+ * Two atoms clash when they are closer than the sum of their radii.
+ * <p>
+ * With one radius for all atoms the index is a {@link CellGrid} with cells of one atom
+ * diameter; with the van der Waals radii of the elements it is a {@link SweepAndPrune}.
+ * The index is immutable and can be shared by threads, each using its own {@link Search}.
+ */
+public final class ClashIndex {
+
+    private final Atoms atoms;
+    private final CellGrid grid;
+    private final SweepAndPrune sweep;
+    /**
+     * Radius of every atom, null when they all have uniformRadius
+     */
+    private final double[] radii;
+    private final double uniformRadius;
+
+    private ClashIndex(Atoms atoms, CellGrid grid, SweepAndPrune sweep, double[] radii, double uniformRadius) {
+        this.atoms = atoms;
+        this.grid = grid;
+        this.sweep = sweep;
+        this.radii = radii;
+        this.uniformRadius = uniformRadius;
+    }
+
+    /**
+     * Indexes atoms that all have the same radius, as have the atoms checked against them
+     */
+    public static ClashIndex uniform(Atoms atoms, double radius) {
+        return new ClashIndex(atoms, CellGrid.of(atoms, 2 * radius), null, null, radius);
+    }
+
+    /**
+     * Indexes atoms with the van der Waals radii of their elements, see {@link Elements}
+     */
+    public static ClashIndex vdw(Atoms atoms) {
+        double[] radii = Elements.radii(atoms);
+        return new ClashIndex(atoms, null, new SweepAndPrune(atoms, radii), radii, 0);
+    }
+
+    public Atoms atoms() {
+        return atoms;
+    }
+
+    /**
+     * @return the radius of every atom of another table as used against this index
+     */
+    public double[] radii(Atoms other) {
+        if (radii != null) {
+            return Elements.radii(other);
+        }
+        double[] uniform = new double[other.size()];
+        Arrays.fill(uniform, uniformRadius);
+        return uniform;
+    }
+
+    /**
+     * @return a new search, for use by one thread
+     */
+    public Search search() {
+        return new Search();
+    }
+
+    /**
+     * Clash queries of one thread. Counts the distance tests it makes.
+     */
+    public final class Search implements CellGrid.Visitor {
+        private double x, y, z, radius;
+        private long comparisons;
+
+        /**
+         * @return true if a sphere clashes with an atom of the index; the search stops at the first clash
+         */
+        public boolean clashes(double x, double y, double z, double radius) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.radius = radius;
+            if (grid != null) {
+                return !grid.visitNeighbours(x, y, z, this);
+            }
+            int from = sweep.windowStart(x, y, z, radius);
+            int to = sweep.windowEnd(x, y, z, radius);
+            int overlap = sweep.firstOverlap(x, y, z, radius, from, to);
+            comparisons += (overlap < 0 ? to : overlap + 1) - from;
+            return overlap >= 0;
+        }
+
+        /**
+         * @return the number of distance tests made so far
+         */
+        public long comparisons() {
+            return comparisons;
+        }
+
+        @Override
+        public boolean visit(int atom) {
+            comparisons++;
+            double dx = atoms.x(atom) - x;
+            double dy = atoms.y(atom) - y;
+            double dz = atoms.z(atom) - z;
+            double contact = uniformRadius + radius;
+            return dx * dx + dy * dy + dz * dz >= contact * contact;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package structure;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens input files that may be compressed, as PDB mirrors store them (.pdb.gz, .cif.gz), without
+ * a temporary file. The compression is told by the first bytes of the file, not by its name:
+ * gzip (1f 8b) or zstd (28 b5 2f fd).
+ * <p>
+ * A compressed file is decompressed on its own thread into a ring of {@link #BUFFERS} buffers,
+ * which the stream returned by {@link #open} hands to the parser in order, so inflating a block
+ * overlaps with parsing the one before. The decompressor waits while every buffer is full, which
+ * bounds the memory of any file size, the same way {@link PipelinedWriter} bounds its output.
+ * <p>
+ * zstd is decompressed by zstd-jni ({@value #ZSTD_STREAM}) when it is on the class path; without
+ * it a zstd file fails with an IOException saying so.
+ */
+public final class CompressedInput {
+
+    /**
+     * Size of a buffer of the ring
+     */
+    public static final int BUFFER_SIZE = 1 << 20;
+    /**
+     * Number of buffers of the ring
+     */
+    public static final int BUFFERS = 4;
+
+    private static final String ZSTD_STREAM = "com.github.luben.zstd.ZstdInputStream";
+    private static final String[] SUFFIXES = {".gz", ".zst", ".zstd"};
+
+    private static final int NONE = 0;
+    private static final int GZIP = 1;
+    private static final int ZSTD = 2;
+
+    private CompressedInput() {
+    }
+
+    /**
+     * @return true if the file starts with the magic bytes of gzip or zstd
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isCompressed(Path file) throws IOException {
+        return compression(file) != NONE;
+    }
+
+    private static int compression(Path file) throws IOException {
+        byte[] magic = new byte[4];
+        int length;
+        try (InputStream in = Files.newInputStream(file)) {
+            length = in.readNBytes(magic, 0, magic.length);
+        }
+        if (length >= 2 && (magic[0] & 0xFF) == 0x1F && (magic[1] & 0xFF) == 0x8B) {
+            return GZIP;
+        }
+        if (length == 4 && (magic[0] & 0xFF) == 0x28 && (magic[1] & 0xFF) == 0xB5
+                && (magic[2] & 0xFF) == 0x2F && (magic[3] & 0xFF) == 0xFD) {
+            return ZSTD;
+        }
+        return NONE;
+    }
+
+    /**
+     * @return the name of a file without a compression suffix (.gz, .zst, .zstd), e.g. 1abc.cif
+     * for 1abc.cif.gz, so the format can be told from it
+     */
+    public static String uncompressedName(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        for (String suffix : SUFFIXES) {
+            if (lower.endsWith(suffix)) {
+                return name.substring(0, name.length() - suffix.length());
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Opens a file for reading, decompressed on a thread of its own if it is compressed
+     *
+     * @return the bytes of the file, decompressed
+     * @throws IOException if the file cannot be opened, or it is zstd and zstd-jni is missing
+     */
+    public static InputStream open(Path file) throws IOException {
+        int compression = compression(file);
+        if (compression == NONE) {
+            return Files.newInputStream(file);
+        }
+        InputStream in = Files.newInputStream(file);
+        try {
+            return new Ring(compression == GZIP ? new GZIPInputStream(in, 1 << 16) : zstd(in, file));
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private static InputStream zstd(InputStream in, Path file) throws IOException {
+        try {
+            return (InputStream) Class.forName(ZSTD_STREAM).getConstructor(InputStream.class).newInstance(in);
+        } catch (ClassNotFoundException e) {
+            throw new IOException(file + " is zstd compressed, which needs zstd-jni (" + ZSTD_STREAM
+                    + ") on the class path; decompress it with zstd -d instead");
+        } catch (InvocationTargetException e) {
+            throw new IOException("Cannot read zstd file " + file, e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Cannot read zstd file " + file, e);
+        }
+    }
+
+    /**
+     * A buffer of decompressed bytes
+     */
+    private static final class Block {
+        final byte[] bytes;
+        int length;
+
+        Block(int capacity) {
+            bytes = new byte[capacity];
+        }
+    }
+
+    /**
+     * The stream of a compressed file, read from the buffers the decompressor thread fills
+     */
+    private static final class Ring extends InputStream {
+        private static final Block END = new Block(0);
+
+        private final InputStream decoder;
+        private final BlockingQueue<Block> free = new ArrayBlockingQueue<>(BUFFERS);
+        private final BlockingQueue<Block> full = new ArrayBlockingQueue<>(BUFFERS + 1);
+        private final Thread thread;
+        private volatile IOException failure;
+        private Block current;
+        private int position;
+
+        Ring(InputStream decoder) {
+            this.decoder = decoder;
+            for (int i = 0; i < BUFFERS; i++) {
+                free.add(new Block(BUFFER_SIZE));
+            }
+            thread = new Thread(this::fill, "input-decompressor");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Fills the buffers in file order until the end of the file, a failure or close. END
+         * always follows, and there is room for it as only BUFFERS buffers exist.
+         */
+        private void fill() {
+            try (InputStream decoder = this.decoder) {
+                int read = 0;
+                while (read >= 0) {
+                    Block block = free.take();
+                    block.length = 0;
+                    while (block.length < block.bytes.length
+                            && (read = decoder.read(block.bytes, block.length, block.bytes.length - block.length)) > 0) {
+                        block.length += read;
+                    }
+                    if (block.length > 0) {
+                        full.put(block);
+                    }
+                }
+            } catch (IOException e) {
+                failure = e;
+            } catch (InterruptedException e) {
+                // Closed before the end of the file
+            } finally {
+                full.offer(END);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            return next() ? current.bytes[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!next()) {
+                return -1;
+            }
+            int count = Math.min(length, current.length - position);
+            System.arraycopy(current.bytes, position, bytes, offset, count);
+            position += count;
+            return count;
+        }
+
+        /**
+         * Moves to the next buffer once the current one is read, returning it to the decompressor
+         *
+         * @return false at the end of the file
+         * @throws IOException if decompressing failed
+         */
+        private boolean next() throws IOException {
+            if (current != null && current != END && position < current.length) {
+                return true;
+            }
+            if (current != END) {
+                if (current != null) {
+                    free.add(current);
+                }
+                try {
+                    current = full.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+                position = 0;
+            }
+            if (current == END) {
+                IOException failure = this.failure;
+                if (failure != null) {
+                    throw new IOException("Decompressing failed", failure);
+                }
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Stops the decompressor, which closes the file
+         */
+        @Override
+        public void close() throws IOException {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package structure;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Reading and writing contact maps, in the text .pairs format and in a compact binary format.
+ * <p>
+ * The text format has one "x y" line of residue numbers per ordered pair in contact, both
+ * orders of every pair, and every residue paired with itself, grouped by row.
+ * <p>
+ * The binary format (big-endian) stores the upper triangle only:
+ * <pre>
+ *   "CMAP", int version, int n, long contacts
+ *   n ints         residue number of every row
+ *   n + 1 longs    offset of every row in the data section, the last one is its length
+ *   data           per row, the columns j &gt; i as unsigned LEB128 varints of the gap to the
+ *                  previous column (the first one relative to i), i.e. j - previous - 1
+ * </pre>
+ * The offsets let {@link MappedContactMap} decode any row straight from the mapped file.
+ */
+public final class ContactMapFile {
+
+    static final int MAGIC = ('C' << 24) | ('M' << 16) | ('A' << 8) | 'P';
+    static final int VERSION = 1;
+    static final int HEADER = 4 + 4 + 4 + 8;
+    /**
+     * Most blocks of text rows formatted ahead of the writer, one buffer each
+     */
+    private static final int MAX_BLOCKS_AHEAD = 8;
+
+    private ContactMapFile() {
+    }
+
+    /**
+     * @return true if the file starts like a binary contact map
+     */
+    public static boolean isBinary(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer start = ByteBuffer.allocate(4);
+            while (start.hasRemaining() && channel.read(start) >= 0) {
+                // keep reading until four bytes or end of file
+            }
+            return start.position() == 4 && start.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Opens a binary contact map without reading its rows
+     */
+    public static MappedContactMap open(Path file) throws IOException {
+        return new MappedContactMap(file);
+    }
+
+    /**
+     * Writes a contact map in the binary format
+     */
+    public static void writeBinary(Contacts contacts, Path file) throws IOException {
+        int n = contacts.size();
+        long dataStart = HEADER + 4L * n + 8L * (n + 1);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+            long[] offsets = new long[n + 1];
+            int[] columns = new int[n];
+            channel.position(dataStart);
+            long position = 0;
+            for (int i = 0; i < n; i++) {
+                offsets[i] = position + buffer.position();
+                int length = contacts.row(i, columns);
+                int previous = i;
+                for (int k = 0; k < length; k++) {
+                    if (buffer.remaining() < 5) {
+                        position += flush(buffer, channel);
+                    }
+                    putVarint(buffer, columns[k] - previous - 1);
+                    previous = columns[k];
+                }
+            }
+            position += flush(buffer, channel);
+            offsets[n] = position;
+
+            ByteBuffer header = ByteBuffer.allocate((int) dataStart);
+            header.putInt(MAGIC).putInt(VERSION).putInt(n).putLong(contacts.count());
+            for (int i = 0; i < n; i++) {
+                header.putInt(contacts.residueNumber(i));
+            }
+            for (long offset : offsets) {
+                header.putLong(offset);
+            }
+            header.flip();
+            long at = 0;
+            while (header.hasRemaining()) {
+                at += channel.write(header, at);
+            }
+        }
+    }
+
+    private static int flush(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        int written = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        return written;
+    }
+
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Writes a contact map in the text .pairs format
+     */
+    public static void writeText(Contacts contacts, Path file) throws IOException {
+        writeText(contacts, file, null);
+    }
+
+    /**
+     * Writes a contact map in the text .pairs format. Blocks of rows are formatted while the
+     * blocks before them are written by a {@link PipelinedWriter}, on the pool if one is given.
+     *
+     * @param pool pool to format blocks of rows on, or null to format them on this thread; the
+     *             rows of the contacts are then read by several threads at once
+     */
+    public static void writeText(Contacts contacts, Path file, ForkJoinPool pool) throws IOException {
+        int n = contacts.size();
+        // Rows of the full symmetric matrix: the lower columns of a row are added while the rows
+        // before it are read, before its own upper columns, so every row ends up in ascending order
+        int[] start = new int[n + 1];
+        int[] columns = new int[n];
+        for (int i = 0; i < n; i++) {
+            int length = contacts.row(i, columns);
+            start[i + 1] += length;
+            for (int k = 0; k < length; k++) {
+                start[columns[k] + 1]++;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            start[i + 1] += start[i];
+        }
+        int[] symmetric = new int[start[n]];
+        int[] next = new int[n];
+        System.arraycopy(start, 0, next, 0, n);
+        for (int i = 0; i < n; i++) {
+            int length = contacts.row(i, columns);
+            for (int k = 0; k < length; k++) {
+                symmetric[next[i]++] = columns[k];
+                symmetric[next[columns[k]]++] = i;
+            }
+        }
+
+        // Blocks of rows of about one buffer each, counting a line (and the diagonal one of every row) as 16 bytes
+        int[] blocks = new int[n + 1];
+        int blockCount = 0;
+        for (int i = 0; i < n; i++) {
+            int from = blocks[blockCount];
+            if ((long) (start[i + 1] - start[from] + i + 1 - from) * 16 >= PipelinedWriter.BUFFER_SIZE || i == n - 1) {
+                blocks[++blockCount] = i + 1;
+            }
+        }
+        int ahead = pool == null ? 1 : Math.min(pool.getParallelism(), MAX_BLOCKS_AHEAD) + 1;
+        try (PipelinedWriter writer = new PipelinedWriter(file, ahead + 1)) {
+            if (pool == null) {
+                for (int b = 0; b < blockCount; b++) {
+                    writer.write(formatRows(contacts, start, symmetric, blocks[b], blocks[b + 1], writer.take()));
+                }
+                return;
+            }
+            ArrayDeque<ForkJoinTask<PipelinedWriter.Lines>> formatting = new ArrayDeque<>();
+            int submitted = 0;
+            while (submitted < blockCount || !formatting.isEmpty()) {
+                while (submitted < blockCount && formatting.size() < ahead) {
+                    int from = blocks[submitted];
+                    int to = blocks[submitted + 1];
+                    PipelinedWriter.Lines lines = writer.take();
+                    formatting.add(pool.submit(() -> formatRows(contacts, start, symmetric, from, to, lines)));
+                    submitted++;
+                }
+                writer.write(formatting.remove().join());
+            }
+        }
+    }
+
+    /**
+     * Formats the rows from to to, the diagonal pair of every row in its place
+     *
+     * @return lines
+     */
+    private static PipelinedWriter.Lines formatRows(Contacts contacts, int[] start, int[] symmetric, int from, int to,
+                                                    PipelinedWriter.Lines lines) {
+        for (int i = from; i < to; i++) {
+            int residueX = contacts.residueNumber(i);
+            boolean diagonal = false;
+            for (int k = start[i]; k < start[i + 1]; k++) {
+                if (!diagonal && symmetric[k] > i) {
+                    lines.put(residueX).put(' ').put(residueX).newLine();
+                    diagonal = true;
+                }
+                lines.put(residueX).put(' ').put(contacts.residueNumber(symmetric[k])).newLine();
+            }
+            if (!diagonal) {
+                lines.put(residueX).put(' ').put(residueX).newLine();
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Reads a contact map in the text .pairs format. The rows are the residues in the order they
+     * first appear in the left column, so residue numbers must be unique. The file is streamed
+     * and the numbers parsed from its bytes, so only the pairs are held in memory.
+     *
+     * @return the contacts in sparse form, as large as the file rather than N²
+     * @throws IOException if the file cannot be read, a line is not a pair of residue numbers or
+     *                     a residue number appears in two rows
+     */
+    public static SparseContacts readText(Path file) throws IOException {
+        LongList pairs = new LongList();
+        List<Integer> residues = new ArrayList<>();
+        Map<Integer, Integer> rows = new HashMap<>();
+        int previous = 0;
+        try (TextInput in = new TextInput(Files.newInputStream(file))) {
+            int[] pair = new int[2];
+            for (int line = 1; in.hasMore(); line++) {
+                int count = in.readLine(pair);
+                if (count == 0) {
+                    continue;
+                }
+                if (count != 2) {
+                    throw new IOException(file + ":" + line + ": not a pair of residue numbers");
+                }
+                int residueX = pair[0];
+                int residueY = pair[1];
+                if (residues.isEmpty() || residueX != previous) {
+                    if (rows.putIfAbsent(residueX, residues.size()) != null) {
+                        throw new IOException("Residue " + residueX + " appears in two rows of " + file);
+                    }
+                    residues.add(residueX);
+                    previous = residueX;
+                }
+                pairs.add(PairSet.pack(residueX, residueY));
+            }
+        }
+        int[] residueNumbers = new int[residues.size()];
+        for (int i = 0; i < residueNumbers.length; i++) {
+            residueNumbers[i] = residues.get(i);
+        }
+        for (int k = 0; k < pairs.size(); k++) {
+            long pair = pairs.get(k);
+            Integer j = rows.get(PairSet.second(pair));
+            if (j == null) {
+                throw new IOException("Residue " + PairSet.second(pair) + " has no row in " + file);
+            }
+            pairs.set(k, PairSet.pack(rows.get(PairSet.first(pair)), j));
+        }
+        return new SparseContacts(residueNumbers, pairs);
+    }
+
+    /**
+     * The bytes of a text file read through one buffer, with the whitespace separated integers
+     * of a line parsed digit by digit
+     */
+    private static final class TextInput implements AutoCloseable {
+        private final InputStream in;
+        private final byte[] buffer = new byte[1 << 16];
+        private int position;
+        private int length;
+
+        TextInput(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * @return false at the end of the file
+         */
+        boolean hasMore() throws IOException {
+            return peek() >= 0;
+        }
+
+        /**
+         * Reads the integers of the next line, up to its line separator
+         *
+         * @param numbers receives the first numbers.length integers of the line
+         * @return the number of integers on the line, numbers.length + 1 if there are more,
+         * -1 if the line holds anything else
+         */
+        int readLine(int[] numbers) throws IOException {
+            int count = 0;
+            for (int c = peek(); c >= 0 && c != '\n'; c = peek()) {
+                if (c == ' ' || c == '\t' || c == '\r') {
+                    position++;
+                    continue;
+                }
+                boolean negative = c == '-';
+                if (c == '-' || c == '+') {
+                    position++;
+                }
+                long value = 0;
+                int digits = 0;
+                for (c = peek(); c >= '0' && c <= '9' && value <= Integer.MAX_VALUE; c = peek()) {
+                    value = value * 10 + (c - '0');
+                    digits++;
+                    position++;
+                }
+                value = negative ? -value : value;
+                if (digits == 0 || value > Integer.MAX_VALUE || value < Integer.MIN_VALUE
+                        || (c >= 0 && c != ' ' && c != '\t' && c != '\r' && c != '\n')) {
+                    skipLine();
+                    return -1;
+                }
+                if (count == numbers.length) {
+                    skipLine();
+                    return count + 1;
+                }
+                numbers[count++] = (int) value;
+            }
+            position++;
+            return count;
+        }
+
+        private void skipLine() throws IOException {
+            for (int c = peek(); c >= 0 && c != '\n'; c = peek()) {
+                position++;
+            }
+            position++;
+        }
+
+        /**
+         * @return the byte at the position, -1 at the end of the file
+         */
+        private int peek() throws IOException {
+            if (position >= length) {
+                position = 0;
+                length = in.read(buffer);
+                if (length <= 0) {
+                    length = 0;
+                    return -1;
+                }
+            }
+            return buffer[position] & 0xFF;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
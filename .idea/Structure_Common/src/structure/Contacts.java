@@ -0,0 +1,33 @@
+package structure;
+
+/**
+ * Read access to a symmetric residue contact map, one row of the upper triangle at a time.
+ * Implemented by the in-memory {@link SparseContacts} found by a neighbour search and by maps
+ * opened from a binary contact map file ({@link MappedContactMap}).
+ */
+public interface Contacts {
+
+    /**
+     * @return the number of residues
+     */
+    int size();
+
+    /**
+     * @return the residue number of row i
+     */
+    int residueNumber(int i);
+
+    /**
+     * Writes the columns j &gt; i in contact with residue i to columns, in ascending order
+     *
+     * @param i       the row
+     * @param columns buffer of at least size() entries
+     * @return the number of columns written
+     */
+    int row(int i, int[] columns);
+
+    /**
+     * @return the number of contacts, each pair counted once
+     */
+    long count();
+}
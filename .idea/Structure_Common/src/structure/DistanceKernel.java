@@ -0,0 +1,98 @@
+package structure;
+
+/**
+ * Tests one position against a block of atoms stored as coordinate columns (see
+ * {@link AtomTable#xs()}), on squared distances so no square root is taken. These loops are
+ * the innermost ones of the contact maps and the clash checks.
+ * <p>
+ * {@link #get()} returns a kernel using the Vector API ({@code jdk.incubator.vector}) when the
+ * JVM runs with {@code --add-modules jdk.incubator.vector}, and this scalar kernel otherwise,
+ * or when the system property {@code structure.vector} is false. Both give the same results:
+ * the squared distances are summed in the same order and no fused multiply-add is used.
+ */
+public class DistanceKernel {
+
+    private static final DistanceKernel SCALAR = new DistanceKernel();
+    private static final DistanceKernel BEST = load();
+
+    DistanceKernel() {
+    }
+
+    /**
+     * The vector kernel is only referenced by name, so the sources still compile without the
+     * incubator module (e.g. with javac -sourcepath, which then leaves it out)
+     */
+    private static DistanceKernel load() {
+        if (!Boolean.parseBoolean(System.getProperty("structure.vector", "true"))) {
+            return SCALAR;
+        }
+        try {
+            return (DistanceKernel) Class.forName("structure.VectorDistanceKernel").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return SCALAR;
+        }
+    }
+
+    /**
+     * @return the fastest kernel available in this JVM
+     */
+    public static DistanceKernel get() {
+        return BEST;
+    }
+
+    /**
+     * @return the scalar kernel
+     */
+    public static DistanceKernel scalar() {
+        return SCALAR;
+    }
+
+    /**
+     * @return a short description of the kernel, e.g. for benchmark reports
+     */
+    public String name() {
+        return "scalar";
+    }
+
+    /**
+     * Finds the atoms closer to a position than a cutoff
+     *
+     * @param count         number of atoms to test, from from on, at most 64
+     * @param cutoffSquared the squared cutoff
+     * @return a mask with bit k set if atom from + k is closer than the cutoff
+     */
+    public long within(double px, double py, double pz, double[] x, double[] y, double[] z, int from, int count, double cutoffSquared) {
+        long mask = 0;
+        for (int k = 0; k < count; k++) {
+            double dx = x[from + k] - px;
+            double dy = y[from + k] - py;
+            double dz = z[from + k] - pz;
+            if (dx * dx + dy * dy + dz * dz < cutoffSquared) {
+                mask |= 1L << k;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Finds the first atom overlapping a sphere: closer to its centre than the sum of both radii
+     *
+     * @param radius the radius of the sphere
+     * @param radii  the radius of every atom
+     * @param from   first atom to test
+     * @param to     end of the atoms to test, exclusive
+     * @return the first overlapping atom, or -1 if there is none
+     */
+    public int firstOverlap(double px, double py, double pz, double radius, double[] x, double[] y, double[] z, double[] radii, int from, int to) {
+        for (int k = from; k < to; k++) {
+            double dx = x[k] - px;
+            double dy = y[k] - py;
+            double dz = z[k] - pz;
+            double contact = radii[k] + radius;
+            if (dx * dx + dy * dy + dz * dz < contact * contact) {
+                return k;
+            }
+        }
+        return -1;
+    }
+}
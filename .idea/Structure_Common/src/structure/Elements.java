@@ -0,0 +1,165 @@
+package structure;
+
+import java.util.Arrays;
+
+/**
+ * Chemical elements of atoms: recognising element symbols, inferring the element from a PDB
+ * atom name, and van der Waals and covalent radii.
+ * <p>
+ * Element symbols are packed upper case like names in {@link AtomTable#pack(CharSequence)},
+ * e.g. "C" or "FE". The radii are Bondi's (1964), with 1.10 Å for hydrogen (Rowland and
+ * Taylor, 1996) and Mantina et al. (2009) for calcium and strontium, which Bondi lacks.
+ * Elements without a radius here get {@link #DEFAULT_RADIUS}. The covalent radii are those of
+ * Cordero et al. (2008), single-bond sp3 for carbon and low-spin for the transition metals.
+ */
+public final class Elements {
+
+    /**
+     * Radius in Å of an atom whose element is unknown or has no tabulated radius
+     */
+    public static final double DEFAULT_RADIUS = 2.0;
+
+    /**
+     * Covalent radius in Å of an atom whose element is unknown or has no tabulated radius
+     */
+    public static final double DEFAULT_COVALENT_RADIUS = 0.77;
+
+    private static final String[] SYMBOLS = (
+            "H HE LI BE B C N O F NE NA MG AL SI P S CL AR K CA SC TI V CR MN FE CO NI CU ZN GA GE AS SE BR KR "
+                    + "RB SR Y ZR NB MO TC RU RH PD AG CD IN SN SB TE I XE CS BA LA CE PR ND PM SM EU GD TB DY HO ER "
+                    + "TM YB LU HF TA W RE OS IR PT AU HG TL PB BI PO AT RN FR RA AC TH PA U NP PU AM CM BK CF ES FM "
+                    + "MD NO LR RF DB SG BH HS MT DS RG CN NH FL MC LV TS OG").split(" ");
+
+    /**
+     * Van der Waals and covalent radii by {@link #slot(int)} of the symbol, so looking one up
+     * creates no String
+     */
+    private static final double[] RADII = table(DEFAULT_RADIUS,
+            "H 1.10 HE 1.40 LI 1.82 C 1.70 N 1.55 O 1.52 F 1.47 NE 1.54 NA 2.27 MG 1.73 SI 2.10 P 1.80 "
+                    + "S 1.80 CL 1.75 AR 1.88 K 2.75 CA 2.31 NI 1.63 CU 1.40 ZN 1.39 GA 1.87 AS 1.85 SE 1.90 BR 1.85 "
+                    + "KR 2.02 SR 2.49 PD 1.63 AG 1.72 CD 1.58 IN 1.93 SN 2.17 TE 2.06 I 1.98 XE 2.16 PT 1.72 AU 1.66 "
+                    + "HG 1.55 TL 1.96 PB 2.02 U 1.86");
+    private static final double[] COVALENT_RADII = table(DEFAULT_COVALENT_RADIUS,
+            "H 0.31 B 0.84 C 0.76 N 0.71 O 0.66 F 0.57 NA 1.66 MG 1.41 AL 1.21 SI 1.11 P 1.07 S 1.05 CL 1.02 "
+                    + "K 2.03 CA 1.76 V 1.53 CR 1.39 MN 1.39 FE 1.32 CO 1.26 NI 1.24 CU 1.32 ZN 1.22 AS 1.19 SE 1.20 "
+                    + "BR 1.20 SR 1.95 MO 1.54 CD 1.44 I 1.39 W 1.62 PT 1.36 AU 1.36 HG 1.32 PB 1.46 U 1.96");
+
+    private static final int[] CODES = new int[SYMBOLS.length];
+
+    static {
+        for (int i = 0; i < SYMBOLS.length; i++) {
+            CODES[i] = AtomTable.pack(SYMBOLS[i]);
+        }
+    }
+
+    private Elements() {
+    }
+
+    /**
+     * @param code a packed upper case symbol
+     * @return true if it is the symbol of an element
+     */
+    public static boolean isElement(int code) {
+        for (int known : CODES) {
+            if (known == code) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Infers the element from the name columns 13-16 of a PDB atom record, where the element
+     * symbol is right-justified in columns 13-14: " CA " is a carbon, "CA  " a calcium.
+     * Four-character hydrogen names such as "HD21" and "1HD2" are hydrogens.
+     *
+     * @param column13 the character in column 13
+     * @param column14 the character in column 14
+     * @param column16 the character in column 16
+     * @return the packed symbol, 0 if no element could be inferred
+     */
+    public static int infer(int column13, int column14, int column16) {
+        if (!isLetter(column13)) {
+            return isLetter(column14) ? upper(column14) : 0;
+        }
+        if (upper(column13) == 'H' && column16 != ' ') {
+            return 'H';
+        }
+        if (isLetter(column14)) {
+            int two = (upper(column13) << 8) | upper(column14);
+            if (isElement(two)) {
+                return two;
+            }
+        }
+        return upper(column13);
+    }
+
+    private static boolean isLetter(int c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+    }
+
+    private static int upper(int c) {
+        return c >= 'a' && c <= 'z' ? c - 'a' + 'A' : c;
+    }
+
+    /**
+     * Van der Waals radius of an element
+     *
+     * @param code the packed upper case symbol
+     * @return the radius in Å
+     */
+    public static double radius(int code) {
+        int slot = slot(code);
+        return slot < 0 ? DEFAULT_RADIUS : RADII[slot];
+    }
+
+    /**
+     * Covalent radius of an element, half the length of a single bond between two of its atoms
+     *
+     * @param code the packed upper case symbol
+     * @return the radius in Å
+     */
+    public static double covalentRadius(int code) {
+        int slot = slot(code);
+        return slot < 0 ? DEFAULT_COVALENT_RADIUS : COVALENT_RADII[slot];
+    }
+
+    /**
+     * @param code a packed symbol
+     * @return the index of a symbol of one or two upper case letters in the radius tables, -1 for any other code
+     */
+    private static int slot(int code) {
+        int first = code > 0xFF ? code >>> 8 : code;
+        int second = code > 0xFF ? code & 0xFF : 0;
+        if (first < 'A' || first > 'Z' || (second != 0 && (second < 'A' || second > 'Z'))) {
+            return -1;
+        }
+        return (first - 'A') * 27 + (second == 0 ? 0 : second - 'A' + 1);
+    }
+
+    /**
+     * @param defaultRadius the radius of the elements not listed
+     * @param radii         pairs of a symbol and its radius, separated by spaces
+     * @return the radius of every slot
+     */
+    private static double[] table(double defaultRadius, String radii) {
+        double[] table = new double[26 * 27];
+        Arrays.fill(table, defaultRadius);
+        String[] fields = radii.split(" ");
+        for (int i = 0; i < fields.length; i += 2) {
+            table[slot(AtomTable.pack(fields[i]))] = Double.parseDouble(fields[i + 1]);
+        }
+        return table;
+    }
+
+    /**
+     * @return the van der Waals radius of every atom of a table or store
+     */
+    public static double[] radii(Atoms atoms) {
+        double[] radii = new double[atoms.size()];
+        for (int i = 0; i < radii.length; i++) {
+            radii[i] = radius(atoms.elementCode(i));
+        }
+        return radii;
+    }
+}
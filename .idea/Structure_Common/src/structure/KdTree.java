@@ -0,0 +1,224 @@
+package structure;
+
+/**
+ * Balanced 3-d tree over a set of points for nearest-neighbour queries among the points that
+ * have not been visited yet. The tree itself is immutable; the visited marks live in an
+ * {@link Unvisited} set, so several walks can share one tree, also on different threads.
+ * <p>
+ * The tree is implicit: the node of a range of the sorted points is its middle element and
+ * splits on the x, y and z coordinate by turns. Every node counts the unvisited points below
+ * it, so a query skips emptied subtrees and stays around O(log N) while a walk eats the set.
+ */
+public final class KdTree {
+
+    private final int n;
+    /**
+     * The points in tree order, and their coordinates in the same order
+     */
+    private final int[] points;
+    private final double[] x, y, z;
+    /**
+     * Tree position of every point
+     */
+    private final int[] slot;
+    /**
+     * Number of points below the node at every tree position
+     */
+    private final int[] sizes;
+
+    /**
+     * Builds a tree over the first n points of the coordinate arrays
+     */
+    public KdTree(double[] xs, double[] ys, double[] zs, int n) {
+        this.n = n;
+        points = new int[n];
+        for (int i = 0; i < n; i++) {
+            points[i] = i;
+        }
+        build(new double[][]{xs, ys, zs}, 0, n, 0);
+        x = new double[n];
+        y = new double[n];
+        z = new double[n];
+        slot = new int[n];
+        for (int k = 0; k < n; k++) {
+            x[k] = xs[points[k]];
+            y[k] = ys[points[k]];
+            z[k] = zs[points[k]];
+            slot[points[k]] = k;
+        }
+        sizes = new int[n];
+        fillSizes(0, n);
+    }
+
+    /**
+     * Builds a tree over the atoms of a table
+     */
+    public static KdTree of(AtomTable atoms) {
+        return new KdTree(atoms.xs(), atoms.ys(), atoms.zs(), atoms.size());
+    }
+
+    public int size() {
+        return n;
+    }
+
+    /**
+     * Sorts points[lo, hi) so that the middle element splits the range on the axis of the depth
+     */
+    private void build(double[][] coordinates, int lo, int hi, int depth) {
+        if (hi - lo < 2) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        select(coordinates[depth % 3], lo, hi - 1, mid);
+        build(coordinates, lo, mid, depth + 1);
+        build(coordinates, mid + 1, hi, depth + 1);
+    }
+
+    /**
+     * Quickselect: puts the point of rank k of points[lo, hi] on position k, the smaller ones before it
+     */
+    private void select(double[] values, int lo, int hi, int k) {
+        while (lo < hi) {
+            double pivot = values[points[(lo + hi) >>> 1]];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (values[points[i]] < pivot) {
+                    i++;
+                }
+                while (values[points[j]] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int swap = points[i];
+                    points[i++] = points[j];
+                    points[j--] = swap;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void fillSizes(int lo, int hi) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        sizes[mid] = hi - lo;
+        fillSizes(lo, mid);
+        fillSizes(mid + 1, hi);
+    }
+
+    /**
+     * @return a set of all points of the tree, none visited
+     */
+    public Unvisited unvisited() {
+        return new Unvisited();
+    }
+
+    /**
+     * The points of a tree that have not been visited, for one walk over them
+     */
+    public final class Unvisited {
+
+        private final boolean[] visited = new boolean[n];
+        private final int[] remaining = sizes.clone();
+        private int bestPoint;
+        private double bestDistance;
+
+        /**
+         * @return the number of points not visited yet
+         */
+        public int size() {
+            return n == 0 ? 0 : remaining[n >>> 1];
+        }
+
+        /**
+         * Marks a point visited, it is no longer returned by {@link #nearest}
+         */
+        public void visit(int point) {
+            if (visited[point]) {
+                return;
+            }
+            visited[point] = true;
+            int target = slot[point];
+            int lo = 0;
+            int hi = n;
+            while (true) {
+                int mid = (lo + hi) >>> 1;
+                remaining[mid]--;
+                if (target == mid) {
+                    return;
+                }
+                if (target < mid) {
+                    hi = mid;
+                } else {
+                    lo = mid + 1;
+                }
+            }
+        }
+
+        /**
+         * Finds the unvisited point nearest to a position, of equally near points the lowest index
+         *
+         * @return index of the point, -1 if every point was visited
+         */
+        public int nearest(double qx, double qy, double qz) {
+            bestPoint = -1;
+            bestDistance = Double.POSITIVE_INFINITY;
+            search(qx, qy, qz, 0, n, 0);
+            return bestPoint;
+        }
+
+        private void search(double qx, double qy, double qz, int lo, int hi, int depth) {
+            if (lo >= hi) {
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            if (remaining[mid] == 0) {
+                return;
+            }
+            int point = points[mid];
+            if (!visited[point]) {
+                double dx = qx - x[mid];
+                double dy = qy - y[mid];
+                double dz = qz - z[mid];
+                double distance = dx * dx + dy * dy + dz * dz;
+                if (distance < bestDistance || (distance == bestDistance && point < bestPoint)) {
+                    bestDistance = distance;
+                    bestPoint = point;
+                }
+            }
+            double diff;
+            switch (depth % 3) {
+                case 0:
+                    diff = qx - x[mid];
+                    break;
+                case 1:
+                    diff = qy - y[mid];
+                    break;
+                default:
+                    diff = qz - z[mid];
+            }
+            // Equal coordinates can lie on both sides of a split, so the far side is searched
+            // on a tie as well
+            if (diff < 0) {
+                search(qx, qy, qz, lo, mid, depth + 1);
+                if (diff * diff <= bestDistance) {
+                    search(qx, qy, qz, mid + 1, hi, depth + 1);
+                }
+            } else {
+                search(qx, qy, qz, mid + 1, hi, depth + 1);
+                if (diff * diff <= bestDistance) {
+                    search(qx, qy, qz, lo, mid, depth + 1);
+                }
+            }
+        }
+    }
+}
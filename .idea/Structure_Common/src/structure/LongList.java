@@ -0,0 +1,68 @@
+package structure;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of longs in one array, e.g. residue pairs packed with {@link PairSet#pack}.
+ * Unlike a list of int[] pairs it costs no object per element.
+ */
+public final class LongList {
+
+    private long[] values;
+    private int size;
+
+    public LongList() {
+        this(16);
+    }
+
+    /**
+     * @param capacity number of values to make room for
+     */
+    public LongList(int capacity) {
+        values = new long[Math.max(capacity, 1)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+        return values[index];
+    }
+
+    public void add(long value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length + (values.length >> 1) + 1);
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * Keeps the first size values
+     */
+    public void truncate(int size) {
+        if (size < this.size) {
+            this.size = size;
+        }
+    }
+
+    /**
+     * Sorts the values in ascending order
+     */
+    public void sort() {
+        Arrays.sort(values, 0, size);
+    }
+
+    /**
+     * Replaces the value at an index
+     */
+    public void set(int index, long value) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+        values[index] = value;
+    }
+}
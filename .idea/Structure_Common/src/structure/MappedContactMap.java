@@ -0,0 +1,81 @@
+package structure;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A binary contact map file (see {@link ContactMapFile}) mapped into memory.
+ * Opening only checks the header; rows are decoded from the mapped bytes when they are read.
+ */
+public final class MappedContactMap implements Contacts {
+
+    private final MappedByteBuffer buffer;
+    private final int n;
+    private final long contacts;
+    private final int residuesAt;
+    private final int offsetsAt;
+    private final int dataAt;
+
+    MappedContactMap(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Contact map too large to map: " + file);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.capacity() < ContactMapFile.HEADER || buffer.getInt(0) != ContactMapFile.MAGIC) {
+            throw new IOException("Not a binary contact map: " + file);
+        }
+        if (buffer.getInt(4) != ContactMapFile.VERSION) {
+            throw new IOException("Unsupported contact map version " + buffer.getInt(4) + ": " + file);
+        }
+        n = buffer.getInt(8);
+        contacts = buffer.getLong(12);
+        long data = ContactMapFile.HEADER + 4L * n + 8L * (n + 1);
+        if (n < 0 || data > buffer.capacity() || data + buffer.getLong((int) data - 8) > buffer.capacity()) {
+            throw new IOException("Truncated contact map: " + file);
+        }
+        residuesAt = ContactMapFile.HEADER;
+        offsetsAt = residuesAt + 4 * n;
+        dataAt = (int) data;
+    }
+
+    @Override
+    public int size() {
+        return n;
+    }
+
+    @Override
+    public int residueNumber(int i) {
+        return buffer.getInt(residuesAt + 4 * i);
+    }
+
+    @Override
+    public int row(int i, int[] columns) {
+        int position = dataAt + (int) buffer.getLong(offsetsAt + 8 * i);
+        int end = dataAt + (int) buffer.getLong(offsetsAt + 8 * (i + 1));
+        int count = 0;
+        int column = i;
+        while (position < end) {
+            int gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(position++);
+                gap |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            column += gap + 1;
+            columns[count++] = column;
+        }
+        return count;
+    }
+
+    @Override
+    public long count() {
+        return contacts;
+    }
+}
@@ -0,0 +1,301 @@
+package structure;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Cursor over a MessagePack document in a buffer, the container format of BinaryCIF. Values are
+ * read in place at the cursor, and values that are not needed are skipped without decoding, so
+ * only the parts of a large document that are used cost anything.
+ */
+final class MessagePack {
+
+    private final ByteBuffer buffer;
+    private int position;
+
+    /**
+     * @param buffer the document, from its position to its limit
+     */
+    MessagePack(ByteBuffer buffer) {
+        this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        this.position = buffer.position();
+    }
+
+    int position() {
+        return position;
+    }
+
+    void position(int position) {
+        this.position = position;
+    }
+
+    /**
+     * @return true if the value at the cursor is nil, which is then skipped
+     */
+    boolean nil() throws IOException {
+        if (peek() == 0xc0) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of key-value pairs of the map at the cursor, which follow it
+     */
+    int mapHeader() throws IOException {
+        int type = next();
+        if (type >= 0x80 && type <= 0x8f) {
+            return type & 0x0f;
+        }
+        if (type == 0xde) {
+            return unsigned(2);
+        }
+        if (type == 0xdf) {
+            return length(4);
+        }
+        throw unexpected(type, "map");
+    }
+
+    /**
+     * @return the number of elements of the array at the cursor, which follow it
+     */
+    int arrayHeader() throws IOException {
+        int type = next();
+        if (type >= 0x90 && type <= 0x9f) {
+            return type & 0x0f;
+        }
+        if (type == 0xdc) {
+            return unsigned(2);
+        }
+        if (type == 0xdd) {
+            return length(4);
+        }
+        throw unexpected(type, "array");
+    }
+
+    String string() throws IOException {
+        int type = next();
+        int length;
+        if (type >= 0xa0 && type <= 0xbf) {
+            length = type & 0x1f;
+        } else if (type >= 0xd9 && type <= 0xdb) {
+            length = length(1 << (type - 0xd9));
+        } else {
+            throw unexpected(type, "string");
+        }
+        check(length);
+        byte[] bytes = new byte[length];
+        buffer.get(position, bytes);
+        position += length;
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the bytes of the binary value at the cursor, as a little-endian view of the document
+     */
+    ByteBuffer binary() throws IOException {
+        int type = next();
+        if (type < 0xc4 || type > 0xc6) {
+            throw unexpected(type, "binary");
+        }
+        int length = length(1 << (type - 0xc4));
+        check(length);
+        ByteBuffer bytes = buffer.slice(position, length).order(ByteOrder.LITTLE_ENDIAN);
+        position += length;
+        return bytes;
+    }
+
+    boolean bool() throws IOException {
+        int type = next();
+        if (type == 0xc2 || type == 0xc3) {
+            return type == 0xc3;
+        }
+        throw unexpected(type, "boolean");
+    }
+
+    long integer() throws IOException {
+        int type = next();
+        if (type <= 0x7f) {
+            return type;
+        }
+        if (type >= 0xe0) {
+            return (byte) type;
+        }
+        switch (type) {
+            case 0xcc:
+                return unsigned(1);
+            case 0xcd:
+                return unsigned(2);
+            case 0xce:
+                return buffer.getInt(advance(4)) & 0xFFFFFFFFL;
+            case 0xcf:
+            case 0xd3:
+                return buffer.getLong(advance(8));
+            case 0xd0:
+                return buffer.get(advance(1));
+            case 0xd1:
+                return buffer.getShort(advance(2));
+            case 0xd2:
+                return buffer.getInt(advance(4));
+            default:
+                throw unexpected(type, "integer");
+        }
+    }
+
+    /**
+     * @return the number at the cursor, an integer or a float
+     */
+    double number() throws IOException {
+        int type = peek();
+        if (type == 0xca) {
+            position++;
+            return buffer.getFloat(advance(4));
+        }
+        if (type == 0xcb) {
+            position++;
+            return buffer.getDouble(advance(8));
+        }
+        return integer();
+    }
+
+    /**
+     * Skips the value at the cursor, with everything in it
+     */
+    void skip() throws IOException {
+        int type = next();
+        if (type <= 0x7f || type >= 0xe0 || type == 0xc0 || type == 0xc2 || type == 0xc3) {
+            return;
+        }
+        if (type >= 0x80 && type <= 0x8f) {
+            skipValues(2 * (type & 0x0f));
+        } else if (type >= 0x90 && type <= 0x9f) {
+            skipValues(type & 0x0f);
+        } else if (type >= 0xa0 && type <= 0xbf) {
+            advance(type & 0x1f);
+        } else {
+            switch (type) {
+                case 0xc4:
+                case 0xd9:
+                    advance(unsigned(1));
+                    break;
+                case 0xc5:
+                case 0xda:
+                    advance(unsigned(2));
+                    break;
+                case 0xc6:
+                case 0xdb:
+                    advance(length(4));
+                    break;
+                case 0xc7:
+                    advance(unsigned(1) + 1);
+                    break;
+                case 0xc8:
+                    advance(unsigned(2) + 1);
+                    break;
+                case 0xc9:
+                    advance(length(4) + 1);
+                    break;
+                case 0xcc:
+                case 0xd0:
+                    advance(1);
+                    break;
+                case 0xcd:
+                case 0xd1:
+                    advance(2);
+                    break;
+                case 0xca:
+                case 0xce:
+                case 0xd2:
+                    advance(4);
+                    break;
+                case 0xcb:
+                case 0xcf:
+                case 0xd3:
+                    advance(8);
+                    break;
+                case 0xd4:
+                case 0xd5:
+                case 0xd6:
+                case 0xd7:
+                case 0xd8:
+                    advance(1 + (1 << (type - 0xd4)));
+                    break;
+                case 0xdc:
+                    skipValues(unsigned(2));
+                    break;
+                case 0xdd:
+                    skipValues(length(4));
+                    break;
+                case 0xde:
+                    skipValues(2L * unsigned(2));
+                    break;
+                case 0xdf:
+                    skipValues(2L * length(4));
+                    break;
+                default:
+                    throw unexpected(type, "value");
+            }
+        }
+    }
+
+    private void skipValues(long count) throws IOException {
+        for (long i = 0; i < count; i++) {
+            skip();
+        }
+    }
+
+    private int peek() throws IOException {
+        check(1);
+        return buffer.get(position) & 0xFF;
+    }
+
+    private int next() throws IOException {
+        int type = peek();
+        position++;
+        return type;
+    }
+
+    /**
+     * Moves the cursor past count bytes
+     *
+     * @return the position of the first of them
+     */
+    private int advance(int count) throws IOException {
+        check(count);
+        int at = position;
+        position += count;
+        return at;
+    }
+
+    private int unsigned(int bytes) throws IOException {
+        int at = advance(bytes);
+        return bytes == 1 ? buffer.get(at) & 0xFF : buffer.getShort(at) & 0xFFFF;
+    }
+
+    /**
+     * Reads a length of 1, 2 or 4 bytes
+     */
+    private int length(int bytes) throws IOException {
+        if (bytes < 4) {
+            return unsigned(bytes);
+        }
+        int length = buffer.getInt(advance(4));
+        if (length < 0) {
+            throw new IOException("MessagePack value longer than 2 GB at " + position);
+        }
+        return length;
+    }
+
+    private void check(int count) throws IOException {
+        if (count > buffer.limit() - position) {
+            throw new IOException("MessagePack document ends inside a value at " + position);
+        }
+    }
+
+    private IOException unexpected(int type, String expected) {
+        return new IOException(String.format("Expected a MessagePack %s at %d, found type 0x%02x", expected, position - 1, type));
+    }
+}
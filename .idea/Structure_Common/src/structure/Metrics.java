@@ -0,0 +1,216 @@
+package structure;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-phase measurements of a tool: wall time, bytes allocated and counters such as atoms read
+ * or pairs tested, for every input the tool processes. A phase is timed with try-with-resources:
+ * <pre>
+ * try (Metrics.Phase phase = run.phase("parse")) {
+ *     atoms = reader.read(file);
+ *     phase.count("atoms", atoms.size());
+ * }
+ * </pre>
+ * Every phase is also committed as a JFR event ({@code structure.Phase}), so a flight recording
+ * (java -XX:StartFlightRecording ...) shows the phases next to GC and CPU samples; the tools write
+ * the collected runs as JSON with --metrics file.json.
+ * <p>
+ * The allocated bytes are those of all live threads of the JVM, so work forked to a pool is
+ * included, but not that of threads ending during the phase; runs going on at the same time
+ * (the jobs of a batch) see each other's allocations.
+ * Runs may be recorded by several threads at once, the phases of one run by one thread.
+ */
+public final class Metrics {
+
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    private final String tool;
+    private final List<Run> runs = new ArrayList<>();
+
+    /**
+     * @param tool name of the tool, e.g. "Steric_Overlap"
+     */
+    public Metrics(String tool) {
+        this.tool = tool;
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) threads;
+            if (sun.isThreadAllocatedMemorySupported() && sun.isThreadAllocatedMemoryEnabled()) {
+                return sun;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the bytes allocated so far by all live threads, -1 if the JVM does not tell
+     */
+    private static long allocatedBytes() {
+        if (THREADS == null) {
+            return -1;
+        }
+        long total = 0;
+        for (long bytes : THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Starts recording the phases of one input
+     *
+     * @param input the structure file(s) processed, for the report
+     */
+    public Run run(String input) {
+        Run run = new Run(input);
+        synchronized (runs) {
+            runs.add(run);
+        }
+        return run;
+    }
+
+    /**
+     * Writes every run as JSON, in order of input
+     */
+    public void writeJson(Path file) throws IOException {
+        List<Run> sorted;
+        synchronized (runs) {
+            sorted = new ArrayList<>(runs);
+        }
+        sorted.sort(Comparator.comparing(run -> run.input));
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.append("{\n  \"tool\": ").append(quote(tool)).append(",\n  \"runs\": [");
+            for (int r = 0; r < sorted.size(); r++) {
+                Run run = sorted.get(r);
+                writer.append(r == 0 ? "\n" : ",\n");
+                writer.append("    {\n      \"input\": ").append(quote(run.input)).append(",\n      \"phases\": [");
+                List<Phase> phases = run.phases();
+                for (int p = 0; p < phases.size(); p++) {
+                    Phase phase = phases.get(p);
+                    writer.append(p == 0 ? "\n" : ",\n");
+                    writer.append("        {\"name\": ").append(quote(phase.name))
+                            .append(", \"nanos\": ").append(String.valueOf(phase.nanos))
+                            .append(", \"allocatedBytes\": ").append(String.valueOf(phase.allocated))
+                            .append(", \"counters\": {");
+                    int c = 0;
+                    for (Map.Entry<String, Long> counter : phase.counters.entrySet()) {
+                        writer.append(c++ == 0 ? "" : ", ").append(quote(counter.getKey())).append(": ").append(String.valueOf(counter.getValue()));
+                    }
+                    writer.append("}}");
+                }
+                writer.append(phases.isEmpty() ? "]\n    }" : "\n      ]\n    }");
+            }
+            writer.append(sorted.isEmpty() ? "]\n}\n" : "\n  ]\n}\n");
+        }
+    }
+
+    private static String quote(String text) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * The phases of one input
+     */
+    public final class Run {
+        private final String input;
+        private final List<Phase> phases = new ArrayList<>();
+
+        private Run(String input) {
+            this.input = input;
+        }
+
+        /**
+         * Starts a phase, ended by closing it
+         *
+         * @param name the phase, e.g. "parse", "index", "pairs", "count" or "write"
+         */
+        public Phase phase(String name) {
+            return new Phase(this, name);
+        }
+
+        private List<Phase> phases() {
+            synchronized (phases) {
+                return new ArrayList<>(phases);
+            }
+        }
+    }
+
+    /**
+     * A phase being timed, recorded in its run when closed
+     */
+    public final class Phase implements AutoCloseable {
+        private final Run run;
+        private final String name;
+        private final Map<String, Long> counters = new LinkedHashMap<>();
+        private final PhaseEvent event = new PhaseEvent();
+        private final long start;
+        private final long startAllocated;
+        private long nanos;
+        private long allocated;
+
+        private Phase(Run run, String name) {
+            this.run = run;
+            this.name = name;
+            event.begin();
+            startAllocated = allocatedBytes();
+            start = System.nanoTime();
+        }
+
+        /**
+         * Sets a counter of the phase, e.g. the number of atoms read
+         *
+         * @return this phase
+         */
+        public Phase count(String counter, long value) {
+            counters.put(counter, value);
+            return this;
+        }
+
+        @Override
+        public void close() {
+            nanos = System.nanoTime() - start;
+            allocated = startAllocated < 0 ? -1 : Math.max(allocatedBytes() - startAllocated, 0);
+            synchronized (run.phases) {
+                run.phases.add(this);
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.tool = tool;
+                event.input = run.input;
+                event.phase = name;
+                event.allocatedBytes = allocated;
+                StringBuilder text = new StringBuilder();
+                for (Map.Entry<String, Long> counter : counters.entrySet()) {
+                    text.append(text.length() == 0 ? "" : " ").append(counter.getKey()).append('=').append(counter.getValue());
+                }
+                event.counters = text.toString();
+                event.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package structure;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Greedy ordering of a cloud of atoms: starting from one atom, always step to the nearest
+ * atom that was not visited yet. The nearest unvisited atom is found in a {@link KdTree},
+ * so a path over N atoms takes about O(N log N) instead of a scan of all atoms per step.
+ * <p>
+ * Several starting atoms can be tried, in parallel on a pool, keeping the shortest path.
+ */
+public final class NearestNeighbourPath {
+
+    private final AtomTable atoms;
+    private final KdTree tree;
+
+    public NearestNeighbourPath(AtomTable atoms) {
+        this.atoms = atoms;
+        this.tree = KdTree.of(atoms);
+    }
+
+    /**
+     * Walks the greedy path from one atom
+     *
+     * @param start index of the first atom
+     * @return the indices of the atoms in path order
+     */
+    public int[] from(int start) {
+        int n = atoms.size();
+        int[] path = new int[n];
+        KdTree.Unvisited unvisited = tree.unvisited();
+        int current = start;
+        for (int i = 0; i < n; i++) {
+            path[i] = current;
+            unvisited.visit(current);
+            if (i + 1 < n) {
+                current = unvisited.nearest(atoms.x(current), atoms.y(current), atoms.z(current));
+            }
+        }
+        return path;
+    }
+
+    /**
+     * @return the summed distance between consecutive atoms of a path
+     */
+    public double length(int[] path) {
+        double length = 0;
+        for (int i = 1; i < path.length; i++) {
+            length += atoms.distance(path[i - 1], path[i]);
+        }
+        return length;
+    }
+
+    /**
+     * Spreads a number of starting atoms evenly over the input, beginning in its middle
+     *
+     * @param count number of starts, at most the number of atoms
+     * @return the indices of the starting atoms
+     */
+    public int[] starts(int count) {
+        int n = atoms.size();
+        count = Math.max(1, Math.min(count, n));
+        int[] starts = new int[count];
+        for (int s = 0; s < count; s++) {
+            starts[s] = (int) ((n / 2 + (long) s * n / count) % n);
+        }
+        return starts;
+    }
+
+    /**
+     * Walks the path from every starting atom and keeps the shortest one, the earliest start on a tie
+     *
+     * @param starts indices of the starting atoms, at least one
+     * @param pool   pool to walk the paths on, or null for a single thread
+     * @return the shortest path
+     */
+    public int[] shortest(int[] starts, ForkJoinPool pool) throws InterruptedException {
+        int[][] paths = new int[starts.length][];
+        if (pool == null) {
+            for (int s = 0; s < starts.length; s++) {
+                paths[s] = from(starts[s]);
+            }
+        } else {
+            List<Callable<int[]>> walks = new ArrayList<>();
+            for (int start : starts) {
+                walks.add(() -> from(start));
+            }
+            List<Future<int[]>> futures = pool.invokeAll(walks);
+            for (int s = 0; s < starts.length; s++) {
+                try {
+                    paths[s] = futures.get(s).get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        }
+        int best = 0;
+        double bestLength = length(paths[0]);
+        for (int s = 1; s < paths.length; s++) {
+            double length = length(paths[s]);
+            if (length < bestLength) {
+                best = s;
+                bestLength = length;
+            }
+        }
+        return paths[best];
+    }
+}
@@ -0,0 +1,158 @@
+package structure;
+
+/**
+ * Set of (i, j) int pairs, each packed into one long key, in an open-addressing hash table
+ * with linear probing. Adding and looking up a pair costs no object, so sets of millions of
+ * residue pairs do not load the garbage collector.
+ * <p>
+ * Key 0 is the pair (0, 0); it marks empty slots and is tracked separately.
+ */
+public final class PairSet {
+
+    private static final long EMPTY = 0;
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private int mask;
+    private int size;
+    private boolean hasEmptyKey;
+
+    public PairSet() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expected number of pairs to make room for without growing
+     */
+    public PairSet(int expected) {
+        allocate(tableSize(expected));
+    }
+
+    /**
+     * Packs a pair into one long, i in the high and j in the low 32 bits. Packed keys compare
+     * like the pairs in lexicographic order for non-negative i and j.
+     */
+    public static long pack(int i, int j) {
+        return ((long) i << 32) | (j & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return the i of a packed pair
+     */
+    public static int first(long pair) {
+        return (int) (pair >>> 32);
+    }
+
+    /**
+     * @return the j of a packed pair
+     */
+    public static int second(long pair) {
+        return (int) pair;
+    }
+
+    /**
+     * @return the pair with the smaller number first, so (i, j) and (j, i) have the same key
+     */
+    public static long canonical(int i, int j) {
+        return i <= j ? pack(i, j) : pack(j, i);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the pair was not in the set yet
+     */
+    public boolean add(int i, int j) {
+        return add(pack(i, j));
+    }
+
+    public boolean contains(int i, int j) {
+        return contains(pack(i, j));
+    }
+
+    /**
+     * Adds a packed pair
+     *
+     * @return true if the pair was not in the set yet
+     */
+    public boolean add(long key) {
+        if (key == EMPTY) {
+            if (hasEmptyKey) {
+                return false;
+            }
+            hasEmptyKey = true;
+            size++;
+            return true;
+        }
+        int slot = slot(key);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        size++;
+        // Grow at a load factor of 1/2, probes stay short
+        if (size * 2L > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the packed pair is in the set
+     */
+    public boolean contains(long key) {
+        if (key == EMPTY) {
+            return hasEmptyKey;
+        }
+        for (int slot = slot(key); keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int slot(long key) {
+        // Mixes the bits of both numbers (the finaliser of MurmurHash3)
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+
+    private static int tableSize(int expected) {
+        if (expected > 1 << 29) {
+            throw new IllegalArgumentException("Too many pairs for one set: " + expected);
+        }
+        int size = MIN_CAPACITY;
+        while (size < 2L * expected) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    private void allocate(int tableSize) {
+        keys = new long[tableSize];
+        mask = tableSize - 1;
+    }
+
+    private void rehash(int tableSize) {
+        long[] old = keys;
+        allocate(tableSize);
+        for (long key : old) {
+            if (key != EMPTY) {
+                int slot = slot(key);
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+            }
+        }
+    }
+}
@@ -0,0 +1,553 @@
+package structure;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Reader for Protein Data Bank files which decodes the fixed PDB columns directly from a
+ * memory-mapped file into an {@link AtomTable}. No String is built per line, and since the
+ * columns are read by position, values that run together (e.g. "-100.123-200.456") are read
+ * correctly where splitting on whitespace fails.
+ * <p>
+ * Columns used (1-based, inclusive): serial 7-11, name 13-16, resName 18-20, chain 22,
+ * resSeq 23-26, x 31-38, y 39-46, z 47-54, element 77-78. Where the element columns are
+ * missing or blank the element is inferred from the name (see {@link Elements#infer}).
+ * <p>
+ * Files named .cif or .mmcif are read as mmCIF ({@link CifReader}) and files named .bcif as
+ * BinaryCIF ({@link BinaryCifReader}), from the _atom_site table into the same {@link AtomTable};
+ * their models are the entries of {@link #readEntries}.
+ * <p>
+ * Files compressed with gzip or zstd (e.g. 1abc.pdb.gz, see {@link CompressedInput}) are read
+ * as they are, the format told by the name without its compression suffix. A compressed PDB
+ * file is parsed one buffer at a time while the next is decompressed.
+ */
+public final class PdbReader {
+
+    /**
+     * Record type flags, may be combined with |
+     */
+    public static final int ATOM = 1;
+    public static final int HETATM = 2;
+
+    /**
+     * Size of the mapped window. Files larger than this are read one window at a time.
+     */
+    private static final int WINDOW = 1 << 28;
+
+    private static final byte[] ATOM_RECORD = {'A', 'T', 'O', 'M', ' ', ' '};
+    private static final byte[] HETATM_RECORD = {'H', 'E', 'T', 'A', 'T', 'M'};
+    private static final byte[] ENDMDL_RECORD = {'E', 'N', 'D', 'M', 'D', 'L'};
+    static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18};
+
+    private final int records;
+    private final int atomName;
+
+    /**
+     * @param records  record types to keep, e.g. {@code ATOM | HETATM}
+     * @param atomName the only atom name to keep (e.g. "CA"), or null to keep every atom
+     */
+    public PdbReader(int records, String atomName) {
+        this.records = records;
+        this.atomName = atomName == null ? 0 : AtomTable.pack(atomName);
+    }
+
+    /**
+     * @return a reader keeping only the alpha-carbons of ATOM records
+     */
+    public static PdbReader alphaCarbons() {
+        return new PdbReader(ATOM, "CA");
+    }
+
+    /**
+     * @return a reader keeping every ATOM and HETATM record
+     */
+    public static PdbReader allAtoms() {
+        return new PdbReader(ATOM | HETATM, null);
+    }
+
+    /**
+     * Receives the entries of a file one at a time
+     */
+    public interface EntryHandler {
+        /**
+         * @param number the number of the entry in the file, starting at 1
+         * @param atoms  the matching atoms of the entry in file order, not empty
+         */
+        void entry(int number, AtomTable atoms) throws IOException;
+    }
+
+    /**
+     * Reads the atoms of a PDB file
+     *
+     * @param file path to the PDB file
+     * @return the matching atoms in file order
+     * @throws IOException if the file cannot be read
+     */
+    public AtomTable read(Path file) throws IOException {
+        Entries entries = new Entries(null, null);
+        read(file, entries);
+        return entries.table;
+    }
+
+    /**
+     * Reads the atoms of a file and, in the same pass, the atoms another reader keeps, e.g. every
+     * atom and the alpha-carbons, so a file needed both ways is parsed once
+     *
+     * @param file        path to the PDB file
+     * @param subset      the reader whose atoms also go to subsetAtoms; only atoms this reader
+     *                    keeps are seen by it
+     * @param subsetAtoms the table to append the atoms of the subset to, in file order
+     * @return the matching atoms in file order
+     * @throws IOException if the file cannot be read
+     */
+    public AtomTable read(Path file, PdbReader subset, AtomTable subsetAtoms) throws IOException {
+        Entries entries = new Entries(null, null);
+        entries.subset = subset;
+        entries.subsetTable = subsetAtoms;
+        read(file, entries);
+        return entries.table;
+    }
+
+    /**
+     * Reads the atoms of a PDB file into a store off the heap, for structures too large for an
+     * {@link AtomTable}
+     *
+     * @param file  path to the PDB file
+     * @param store the store to append the matching atoms to, in file order
+     * @throws IOException if the file cannot be read or the store cannot grow
+     */
+    public void read(Path file, AtomStore store) throws IOException {
+        read(file, new Entries(null, store));
+    }
+
+    /**
+     * Reads a file holding several entries, e.g. a ligand library or docked poses, where every
+     * entry ends with an END or ENDMDL record. Only one entry is held in memory at a time;
+     * entries without matching atoms are skipped.
+     *
+     * @param file    path to the PDB file
+     * @param handler receives every entry as soon as it is read
+     * @throws IOException if the file cannot be read, or as thrown by the handler
+     */
+    public void readEntries(Path file, EntryHandler handler) throws IOException {
+        Entries entries = new Entries(handler, null);
+        read(file, entries);
+        entries.end();
+    }
+
+    private void read(Path file, Entries entries) throws IOException {
+        String name = CompressedInput.uncompressedName(file.getFileName().toString()).toLowerCase(Locale.ROOT);
+        if (name.endsWith(".bcif")) {
+            new BinaryCifReader(this).read(file, entries);
+            return;
+        }
+        if (name.endsWith(".cif") || name.endsWith(".mmcif")) {
+            new CifReader(this).read(file, entries);
+            return;
+        }
+        if (CompressedInput.isCompressed(file)) {
+            readStream(file, entries);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long length = Math.min(WINDOW, size - position);
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                boolean last = position + length == size;
+                int consumed = readLines(buffer, (int) length, last, entries);
+                if (consumed == 0) {
+                    throw new IOException("Line longer than " + WINDOW + " bytes in " + file);
+                }
+                position += consumed;
+            }
+        }
+    }
+
+    /**
+     * Reads a compressed PDB file through a window the decompressed bytes are read into, the
+     * unterminated last line of the window moved to its start before the next read
+     */
+    private void readStream(Path file, Entries entries) throws IOException {
+        try (InputStream in = CompressedInput.open(file)) {
+            byte[] window = new byte[CompressedInput.BUFFER_SIZE];
+            ByteBuffer buffer = ByteBuffer.wrap(window);
+            int length = 0;
+            boolean last = false;
+            while (!last) {
+                length += in.readNBytes(window, length, window.length - length);
+                last = length < window.length;
+                int consumed = readLines(buffer, length, last, entries);
+                if (consumed == 0 && !last) {
+                    throw new IOException("Line longer than " + window.length + " bytes in " + file);
+                }
+                System.arraycopy(window, consumed, window, 0, length - consumed);
+                length -= consumed;
+            }
+        }
+    }
+
+    /**
+     * @param record ATOM or HETATM
+     * @param name   the packed atom name
+     * @return true if this reader keeps the atom
+     */
+    boolean keeps(int record, int name) {
+        return (records & record) != 0 && (atomName == 0 || name == atomName);
+    }
+
+    /**
+     * The entry being read. Without a handler the whole file is a single entry, which goes to
+     * the store if there is one, and the atoms a subset reader keeps also go to its own table.
+     */
+    static final class Entries {
+        final EntryHandler handler;
+        final AtomStore store;
+        AtomTable table = new AtomTable();
+        int count;
+        PdbReader subset;
+        AtomTable subsetTable;
+
+        Entries(EntryHandler handler, AtomStore store) {
+            this.handler = handler;
+            this.store = store;
+        }
+
+        /**
+         * @param record ATOM or HETATM
+         */
+        void add(int record, int serial, int name, int residueName, char chain, int residueNumber,
+                 double x, double y, double z, int element) throws IOException {
+            if (subset != null && subset.keeps(record, name)) {
+                subsetTable.add(serial, name, residueName, chain, residueNumber, x, y, z, element);
+            }
+            if (store != null) {
+                store.add(serial, name, residueName, chain, residueNumber, x, y, z, element);
+            } else {
+                table.add(serial, name, residueName, chain, residueNumber, x, y, z, element);
+            }
+        }
+
+        void end() throws IOException {
+            if (handler != null && table.size() > 0) {
+                handler.entry(++count, table);
+                table = new AtomTable();
+            }
+        }
+    }
+
+    /**
+     * Parses every complete line of the buffer
+     *
+     * @return the number of bytes consumed, which stops at the start of an unterminated last line
+     * unless this is the end of the file
+     */
+    private int readLines(ByteBuffer buffer, int length, boolean last, Entries entries) throws IOException {
+        int start = 0;
+        while (start < length) {
+            int end = start;
+            while (end < length && buffer.get(end) != '\n') {
+                end++;
+            }
+            if (end == length && !last) {
+                return start;
+            }
+            int lineEnd = end > start && buffer.get(end - 1) == '\r' ? end - 1 : end;
+            if (isEndRecord(buffer, start, lineEnd)) {
+                entries.end();
+            } else {
+                readLine(buffer, start, lineEnd, entries);
+            }
+            start = end + 1;
+        }
+        return length;
+    }
+
+    private void readLine(ByteBuffer buffer, int start, int end, Entries entries) throws IOException {
+        if (end - start < 54) {
+            return;
+        }
+        int record;
+        if ((records & ATOM) != 0 && matches(buffer, start, ATOM_RECORD)) {
+            record = ATOM;
+        } else if ((records & HETATM) != 0 && matches(buffer, start, HETATM_RECORD)) {
+            record = HETATM;
+        } else {
+            return;
+        }
+        int name = packColumn(buffer, start + 12, start + 16);
+        if (atomName != 0 && name != atomName) {
+            return;
+        }
+        entries.add(record,
+                parseInt(buffer, start + 6, start + 11),
+                name,
+                packColumn(buffer, start + 17, start + 20),
+                (char) (buffer.get(start + 21) & 0xFF),
+                parseInt(buffer, start + 22, start + 26),
+                parseDecimal(buffer, start + 30, start + 38),
+                parseDecimal(buffer, start + 38, start + 46),
+                parseDecimal(buffer, start + 46, start + 54),
+                element(buffer, start, end));
+    }
+
+    private static int element(ByteBuffer buffer, int start, int end) {
+        if (end - start >= 78) {
+            int code = 0;
+            for (int i = start + 76; i < start + 78; i++) {
+                byte b = buffer.get(i);
+                if (b != ' ') {
+                    code = (code << 8) | (b >= 'a' && b <= 'z' ? b - 'a' + 'A' : b & 0xFF);
+                }
+            }
+            if (code != 0) {
+                return code;
+            }
+        }
+        return Elements.infer(buffer.get(start + 12), buffer.get(start + 13), buffer.get(start + 15));
+    }
+
+    /**
+     * @return true for an END or ENDMDL record, but not for e.g. the ENDROOT of PDBQT files
+     */
+    private static boolean isEndRecord(ByteBuffer buffer, int start, int end) {
+        if (end - start >= 6 && matches(buffer, start, ENDMDL_RECORD)) {
+            return true;
+        }
+        if (end - start < 3 || buffer.get(start) != 'E' || buffer.get(start + 1) != 'N' || buffer.get(start + 2) != 'D') {
+            return false;
+        }
+        for (int i = start + 3; i < Math.min(end, start + 6); i++) {
+            if (buffer.get(i) != ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(ByteBuffer buffer, int start, byte[] record) {
+        for (int i = 0; i < record.length; i++) {
+            if (buffer.get(start + i) != record[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Packs the non-blank characters of a column into an int, the same way as {@link AtomTable#pack}
+     */
+    private static int packColumn(ByteBuffer buffer, int from, int to) {
+        int code = 0;
+        for (int i = from; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b != ' ') {
+                code = (code << 8) | (b & 0xFF);
+            }
+        }
+        return code;
+    }
+
+    /**
+     * Parses a right-justified integer column
+     */
+    static int parseInt(ByteBuffer buffer, int from, int to) {
+        int value = 0;
+        boolean negative = false;
+        for (int i = from; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b == '-') {
+                negative = true;
+            } else if (b >= '0' && b <= '9') {
+                value = value * 10 + (b - '0');
+            }
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a fixed-point decimal column such as "  -12.345". The digits are collected into a
+     * long and divided by a power of ten, which gives the same double as Double.parseDouble.
+     */
+    static double parseDecimal(ByteBuffer buffer, int from, int to) {
+        long mantissa = 0;
+        int decimals = -1;
+        boolean negative = false;
+        for (int i = from; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b == '-') {
+                negative = true;
+            } else if (b == '.') {
+                decimals = 0;
+            } else if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            }
+        }
+        double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+        return negative ? -value : value;
+    }
+
+    /**
+     * Reads a plain list of alpha-carbons where every line holds a number followed by the
+     * x, y and z coordinates separated by blanks, e.g. "     1\t5.598 5.767 11.082".
+     * The number is stored as the serial of the atom.
+     *
+     * @param file path to the coordinate list
+     * @return the atoms in file order
+     * @throws IOException if the file cannot be read
+     */
+    public static AtomTable readCoordinateList(Path file) throws IOException {
+        AtomTable table = new AtomTable();
+        ByteBuffer buffer;
+        if (CompressedInput.isCompressed(file)) {
+            try (InputStream in = CompressedInput.open(file)) {
+                buffer = ByteBuffer.wrap(in.readAllBytes());
+            }
+        } else {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException("Coordinate list too large: " + file);
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+        int length = buffer.limit();
+        int[] field = new int[2];
+        double[] xyz = new double[3];
+        int position = 0;
+        int line = 0;
+        while (position < length) {
+            int end = position;
+            while (end < length && buffer.get(end) != '\n') {
+                end++;
+            }
+            line++;
+            if (nextField(buffer, position, end, field)) {
+                int serial = parseListInt(buffer, field[0], field[1], file, line);
+                int count = 0;
+                while (count < 3 && nextField(buffer, field[1], end, field)) {
+                    xyz[count++] = parseListDecimal(buffer, field[0], field[1], file, line);
+                }
+                if (count == 3) {
+                    table.add(serial, 0, 0, ' ', serial, xyz[0], xyz[1], xyz[2]);
+                }
+            }
+            position = end + 1;
+        }
+        return table;
+    }
+
+    /**
+     * Parses an integer token of a coordinate list
+     *
+     * @throws IOException if the token is not an integer or does not fit in an int
+     */
+    private static int parseListInt(ByteBuffer buffer, int from, int to, Path file, int line) throws IOException {
+        long value = 0;
+        boolean negative = false;
+        for (int i = from; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                value = value * 10 + (b - '0');
+                if (value > Integer.MAX_VALUE + 1L) {
+                    throw new IOException(file + ":" + line + ": not an integer: " + token(buffer, from, to));
+                }
+            } else if ((b == '-' || b == '+') && i == from && to - from > 1) {
+                negative = b == '-';
+            } else {
+                String token = token(buffer, from, to);
+                try {
+                    return Integer.parseInt(token);
+                } catch (NumberFormatException e) {
+                    throw new IOException(file + ":" + line + ": not an integer: " + token);
+                }
+            }
+        }
+        if (!negative && value > Integer.MAX_VALUE) {
+            throw new IOException(file + ":" + line + ": not an integer: " + token(buffer, from, to));
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    /**
+     * Parses a decimal token of a coordinate list. Tokens other than an optional sign, digits and
+     * one dot, e.g. with an exponent, or of more than 18 digits are parsed by Double.parseDouble.
+     *
+     * @throws IOException if the token is not a number
+     */
+    private static double parseListDecimal(ByteBuffer buffer, int from, int to, Path file, int line) throws IOException {
+        long mantissa = 0;
+        int decimals = -1;
+        int digits = 0;
+        boolean negative = false;
+        for (int i = from; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            } else if (b == '.' && decimals < 0) {
+                decimals = 0;
+            } else if (b == '-' && i == from) {
+                negative = true;
+            } else if (!(b == '+' && i == from)) {
+                return parseDouble(buffer, from, to, file, line);
+            }
+        }
+        if (digits == 0 || digits > 18) {
+            return parseDouble(buffer, from, to, file, line);
+        }
+        double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+        return negative ? -value : value;
+    }
+
+    private static double parseDouble(ByteBuffer buffer, int from, int to, Path file, int line) throws IOException {
+        String token = token(buffer, from, to);
+        try {
+            return Double.parseDouble(token);
+        } catch (NumberFormatException e) {
+            throw new IOException(file + ":" + line + ": not a number: " + token);
+        }
+    }
+
+    private static String token(ByteBuffer buffer, int from, int to) {
+        StringBuilder token = new StringBuilder(to - from);
+        for (int i = from; i < to; i++) {
+            token.append((char) (buffer.get(i) & 0xFF));
+        }
+        return token.toString();
+    }
+
+    /**
+     * Finds the next blank-separated field in [from, to) and stores its bounds in field
+     */
+    private static boolean nextField(ByteBuffer buffer, int from, int to, int[] field) {
+        int start = from;
+        while (start < to && isBlank(buffer.get(start))) {
+            start++;
+        }
+        int end = start;
+        while (end < to && !isBlank(buffer.get(end))) {
+            end++;
+        }
+        field[0] = start;
+        field[1] = end;
+        return end > start;
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+}
@@ -0,0 +1,35 @@
+package structure;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of one phase of a tool, committed by {@link Metrics.Phase#close()}
+ */
+@Name("structure.Phase")
+@Label("Phase")
+@Category("Structure")
+@Description("A phase of a structure tool: parse, index, pairs, count or write")
+@StackTrace(false)
+final class PhaseEvent extends jdk.jfr.Event {
+
+    @Label("Tool")
+    String tool;
+
+    @Label("Input")
+    String input;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Allocated")
+    @DataAmount(DataAmount.BYTES)
+    long allocatedBytes;
+
+    @Label("Counters")
+    String counters;
+}
@@ -0,0 +1,302 @@
+package structure;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes a text file from a separate thread, so formatting the lines overlaps with writing them.
+ * Lines are formatted into reusable byte buffers ({@link Lines}), numbers digit by digit without
+ * temporary Strings; a buffer is handed to {@link #write} when full, and the writer thread writes
+ * the buffers through a FileChannel in the order they were handed over, one large write each.
+ * <p>
+ * Only as many buffers as given exist, {@link #take} waits for the writer to return one, which
+ * bounds the memory of any output size. Several threads may fill buffers at once (e.g. blocks of
+ * rows formatted on a pool), as long as the buffers are handed over in file order.
+ * <pre>
+ * try (PipelinedWriter writer = new PipelinedWriter(file, 2)) {
+ *     PipelinedWriter.Lines lines = writer.take();
+ *     for (int[] pair : pairs) {
+ *         lines = writer.reserve(lines, 32);
+ *         lines.put(pair[0]).put(' ').put(pair[1]).newLine();
+ *     }
+ *     writer.write(lines);
+ * }
+ * </pre>
+ */
+public final class PipelinedWriter implements AutoCloseable {
+
+    /**
+     * Initial size of a buffer, grown when a caller puts more in it
+     */
+    public static final int BUFFER_SIZE = 1 << 20;
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private static final Lines END = new Lines(0);
+
+    private final FileChannel channel;
+    private final BlockingQueue<Lines> free;
+    private final BlockingQueue<Lines> full;
+    private final Thread thread;
+    private volatile IOException failure;
+    private long bytes;
+    private boolean closed;
+
+    /**
+     * Creates or truncates a file and starts its writer thread
+     *
+     * @param buffers number of buffers, at least 2 so one is filled while another is written
+     */
+    public PipelinedWriter(Path file, int buffers) throws IOException {
+        if (buffers < 2) {
+            throw new IllegalArgumentException("At least 2 buffers are needed: " + buffers);
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        free = new ArrayBlockingQueue<>(buffers);
+        full = new ArrayBlockingQueue<>(buffers + 1);
+        for (int i = 0; i < buffers; i++) {
+            free.add(new Lines(BUFFER_SIZE));
+        }
+        thread = new Thread(this::drain, "output-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return an empty buffer, once the writer thread has returned one
+     * @throws IOException if writing an earlier buffer failed
+     */
+    public Lines take() throws IOException {
+        checkFailure();
+        try {
+            Lines lines = free.take();
+            lines.length = 0;
+            return lines;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Hands a buffer taken from this writer over to be written after the ones before it.
+     * The buffer must not be used afterwards.
+     *
+     * @throws IOException if writing an earlier buffer failed
+     */
+    public void write(Lines lines) throws IOException {
+        checkFailure();
+        bytes += lines.length;
+        try {
+            full.put(lines);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Makes sure a buffer has room for a number of bytes more: a buffer that would grow past
+     * {@link #BUFFER_SIZE} is handed over to be written and an empty one is taken instead
+     *
+     * @param lines a buffer taken from this writer
+     * @param bytes the most bytes the caller is about to put, e.g. the length of its longest line
+     * @return the buffer to go on with, lines itself if it has room
+     * @throws IOException if writing an earlier buffer failed
+     */
+    public Lines reserve(Lines lines, int bytes) throws IOException {
+        if (lines.length > 0 && lines.length + bytes > BUFFER_SIZE) {
+            write(lines);
+            return take();
+        }
+        return lines;
+    }
+
+    /**
+     * @return the number of bytes handed over so far
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Waits until every buffer handed over is written and closes the file
+     *
+     * @throws IOException if writing a buffer or closing the file failed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            full.put(END);
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            thread.interrupt();
+            throw new InterruptedIOException();
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        IOException failure = this.failure;
+        if (failure != null) {
+            throw new IOException("Writing failed", failure);
+        }
+    }
+
+    /**
+     * Writes the buffers in the order they are handed over until END. After a failure the
+     * remaining buffers are returned unwritten, so no caller waits forever for one.
+     */
+    private void drain() {
+        try (FileChannel channel = this.channel) {
+            for (Lines lines = full.take(); lines != END; lines = full.take()) {
+                if (failure == null) {
+                    try {
+                        ByteBuffer buffer = ByteBuffer.wrap(lines.bytes, 0, lines.length);
+                        while (buffer.hasRemaining()) {
+                            channel.write(buffer);
+                        }
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+                free.put(lines);
+            }
+        } catch (IOException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        } catch (InterruptedException e) {
+            failure = new InterruptedIOException();
+        }
+    }
+
+    /**
+     * A buffer of ASCII text being formatted, grown as needed
+     */
+    public static final class Lines {
+        private byte[] bytes;
+        private int length;
+
+        private Lines(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        /**
+         * @return the number of bytes in the buffer
+         */
+        public int length() {
+            return length;
+        }
+
+        public Lines put(char c) {
+            ensure(1);
+            bytes[length++] = (byte) c;
+            return this;
+        }
+
+        /**
+         * Appends text, characters outside ASCII as '?'
+         */
+        public Lines put(String text) {
+            ensure(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                bytes[length++] = c < 0x80 ? (byte) c : (byte) '?';
+            }
+            return this;
+        }
+
+        /**
+         * Appends a name packed with {@link AtomTable#pack}, as {@link AtomTable#unpack} spells it
+         */
+        public Lines putPacked(int code) {
+            ensure(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                int c = (code >>> shift) & 0xFF;
+                if (c != 0) {
+                    bytes[length++] = (byte) c;
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Appends a number in decimal, as String.valueOf would
+         */
+        public Lines put(long value) {
+            if (value == Long.MIN_VALUE) {
+                return put(String.valueOf(value));
+            }
+            ensure(20);
+            if (value < 0) {
+                bytes[length++] = '-';
+                value = -value;
+            }
+            int digits = 1;
+            for (long rest = value / 10; rest != 0; rest /= 10) {
+                digits++;
+            }
+            int at = length + digits;
+            do {
+                bytes[--at] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+            length += digits;
+            return this;
+        }
+
+        /**
+         * Appends a number rounded to a fixed number of decimals, as String.format("%.3f") would for 3
+         *
+         * @param decimals the number of decimals, at most 18
+         */
+        public Lines put(double value, int decimals) {
+            long scale = (long) PdbReader.POWERS_OF_TEN[decimals];
+            long scaled = Math.round(Math.abs(value) * scale);
+            if (value < 0 && scaled != 0) {
+                put('-');
+            }
+            put(scaled / scale);
+            if (decimals > 0) {
+                put('.');
+                long fraction = scaled % scale;
+                for (long digit = scale / 10; digit > fraction && digit > 1; digit /= 10) {
+                    put('0');
+                }
+                put(fraction);
+            }
+            return this;
+        }
+
+        /**
+         * Ends a line with the line separator of the platform, as BufferedWriter.newLine does
+         */
+        public Lines newLine() {
+            ensure(LINE_SEPARATOR.length);
+            for (byte b : LINE_SEPARATOR) {
+                bytes[length++] = b;
+            }
+            return this;
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+    }
+}
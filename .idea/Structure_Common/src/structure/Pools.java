@@ -0,0 +1,25 @@
+package structure;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The fork-join pools the tools run their parallel work on
+ */
+public final class Pools {
+
+    private Pools() {
+    }
+
+    /**
+     * Creates the pool for a number of worker threads given on the command line
+     *
+     * @param threads number of threads, 0 for one per available processor
+     * @return the pool, or null for a single thread
+     */
+    public static ForkJoinPool of(int threads) {
+        if (threads == 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        return threads <= 1 ? null : new ForkJoinPool(threads);
+    }
+}
@@ -0,0 +1,126 @@
+package structure;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Scores rigid placements (poses) of a ligand against a receptor index: the number of ligand
+ * atoms that clash with the receptor after the pose is applied.
+ * <p>
+ * A pose is stored as {@link #POSE_SIZE} doubles, a row-major rotation matrix followed by a
+ * translation, and maps an atom at p to R p + t. Poses are passed in flat arrays, so millions
+ * of them cost no object each. Neither the receptor nor the ligand is read or indexed again
+ * per pose, and a pose stops being scored as soon as it has more clashes than the budget.
+ */
+public final class PoseScorer {
+
+    /**
+     * Doubles per pose: r11 r12 r13 r21 r22 r23 r31 r32 r33 tx ty tz
+     */
+    public static final int POSE_SIZE = 12;
+    /**
+     * Budget that never stops a pose
+     */
+    public static final int NO_BUDGET = Integer.MAX_VALUE - 1;
+
+    /**
+     * Poses per task of a parallel run
+     */
+    private static final int GRAIN = 64;
+
+    private final ClashIndex receptor;
+    private final int n;
+    private final double[] x, y, z;
+    private final double[] radii;
+
+    /**
+     * @param receptor the receptor index, shared by every pose
+     * @param ligand   the ligand atoms in the frame the poses apply to
+     */
+    public PoseScorer(ClashIndex receptor, AtomTable ligand) {
+        this.receptor = receptor;
+        n = ligand.size();
+        x = ligand.xs();
+        y = ligand.ys();
+        z = ligand.zs();
+        radii = receptor.radii(ligand);
+    }
+
+    /**
+     * Counts the clashing ligand atoms of one pose
+     *
+     * @param poses  the poses
+     * @param pose   number of the pose in poses
+     * @param budget largest number of clashes worth counting exactly
+     * @param search search of the calling thread
+     * @return the number of clashing atoms, or budget + 1 once the pose has more than budget clashes
+     */
+    public int score(double[] poses, int pose, int budget, ClashIndex.Search search) {
+        int p = pose * POSE_SIZE;
+        double r11 = poses[p], r12 = poses[p + 1], r13 = poses[p + 2];
+        double r21 = poses[p + 3], r22 = poses[p + 4], r23 = poses[p + 5];
+        double r31 = poses[p + 6], r32 = poses[p + 7], r33 = poses[p + 8];
+        double tx = poses[p + 9], ty = poses[p + 10], tz = poses[p + 11];
+        int clashes = 0;
+        for (int i = 0; i < n; i++) {
+            double px = r11 * x[i] + r12 * y[i] + r13 * z[i] + tx;
+            double py = r21 * x[i] + r22 * y[i] + r23 * z[i] + ty;
+            double pz = r31 * x[i] + r32 * y[i] + r33 * z[i] + tz;
+            if (search.clashes(px, py, pz, radii[i]) && ++clashes > budget) {
+                break;
+            }
+        }
+        return clashes;
+    }
+
+    /**
+     * Scores a number of poses
+     *
+     * @param poses  the poses, POSE_SIZE doubles each
+     * @param count  number of poses to score, from the start of poses
+     * @param budget largest number of clashes worth counting exactly, {@link #NO_BUDGET} to count all
+     * @param pool   pool to score the poses on, or null for a single thread
+     * @return the score of every pose, see {@link #score}
+     */
+    public int[] scoreAll(double[] poses, int count, int budget, ForkJoinPool pool) {
+        int[] scores = new int[count];
+        if (pool == null) {
+            ClashIndex.Search search = receptor.search();
+            for (int pose = 0; pose < count; pose++) {
+                scores[pose] = score(poses, pose, budget, search);
+            }
+        } else {
+            pool.invoke(new ScoreTask(poses, budget, scores, 0, count));
+        }
+        return scores;
+    }
+
+    private final class ScoreTask extends RecursiveAction {
+        private final double[] poses;
+        private final int budget;
+        private final int[] scores;
+        private final int from, to;
+
+        ScoreTask(double[] poses, int budget, int[] scores, int from, int to) {
+            this.poses = poses;
+            this.budget = budget;
+            this.scores = scores;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > GRAIN) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ScoreTask(poses, budget, scores, from, middle),
+                        new ScoreTask(poses, budget, scores, middle, to));
+                return;
+            }
+            ClashIndex.Search search = receptor.search();
+            for (int pose = from; pose < to; pose++) {
+                scores[pose] = score(poses, pose, budget, search);
+            }
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package structure;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Steric clashes within one structure, e.g. a model after refinement. Two atoms clash when they
+ * are closer than the sum of their radii less an allowed overlap, unless they are bonded or both
+ * bonded to a third atom (a 1-3 pair), whose distances are set by the bond lengths and angles.
+ * <p>
+ * The pairs are found in one walk over a {@link CellGrid} with {@link CellGrid#visitPairs}, which
+ * tests every pair once. Two atoms are bonded when they are closer than the sum of their
+ * covalent radii plus {@link #BOND_TOLERANCE} and the residue topology allows a bond between
+ * them: atoms of one residue, the peptide (C-N) or phosphodiester (O3'-P) link of residues next
+ * to each other in a chain, or a disulfide (SG-SG). Atoms of hetero groups (ligands, modified
+ * residues, ions) are bonded by distance alone; waters are never bonded to another residue.
+ */
+public final class SelfClashes {
+
+    /**
+     * Added to the sum of the covalent radii of two atoms for the longest distance at which they
+     * are bonded, in Å
+     */
+    public static final double BOND_TOLERANCE = 0.45;
+
+    /**
+     * Overlap of two atoms in Å that is not yet a clash, the serious clash threshold of MolProbity
+     */
+    public static final double DEFAULT_ALLOWED_OVERLAP = 0.4;
+
+    /**
+     * Most bytes of a line of {@link #write}: two serials and residue numbers, four names and a distance
+     */
+    private static final int LINE_BYTES = 128;
+
+    /**
+     * Residues whose atoms are bonded to the next residue only through the backbone link
+     */
+    private static final int[] STANDARD = codes("ALA", "ARG", "ASN", "ASP", "CYS", "GLN", "GLU", "GLY", "HIS", "ILE",
+            "LEU", "LYS", "MET", "PHE", "PRO", "SER", "THR", "TRP", "TYR", "VAL",
+            "A", "C", "G", "U", "I", "DA", "DC", "DG", "DT", "DI");
+    private static final int[] WATER = codes("HOH", "WAT", "DOD", "H2O");
+
+    private static final int C = AtomTable.pack("C");
+    private static final int N = AtomTable.pack("N");
+    private static final int O3 = AtomTable.pack("O3'");
+    private static final int O3_OLD = AtomTable.pack("O3*");
+    private static final int P = AtomTable.pack("P");
+    private static final int SG = AtomTable.pack("SG");
+
+    private static final byte POLYMER = 0;
+    private static final byte HETERO = 1;
+    private static final byte SOLVENT = 2;
+
+    private final Atoms atoms;
+    /**
+     * The clashing pairs, packed with {@link PairSet#pack} with the lower index first, in order
+     */
+    private final long[] clashes;
+    private final int bonds;
+    private final int excluded;
+    private final long comparisons;
+
+    private SelfClashes(Atoms atoms, long[] clashes, int bonds, int excluded, long comparisons) {
+        this.atoms = atoms;
+        this.clashes = clashes;
+        this.bonds = bonds;
+        this.excluded = excluded;
+        this.comparisons = comparisons;
+    }
+
+    /**
+     * Finds the clashes between the atoms of a structure
+     *
+     * @param atoms          the atoms of the structure, in a table or a store
+     * @param radii          the radius of every atom
+     * @param allowedOverlap the overlap in Å two atoms may have without clashing
+     * @param pool           pool to walk the grid on, or null for a single thread
+     */
+    public static SelfClashes find(Atoms atoms, double[] radii, double allowedOverlap, ForkJoinPool pool) {
+        int n = atoms.size();
+        double[] covalent = new double[n];
+        byte[] kinds = new byte[n];
+        double maxRadius = 0;
+        double maxCovalent = 0;
+        for (int i = 0; i < n; i++) {
+            covalent[i] = Elements.covalentRadius(atoms.elementCode(i));
+            kinds[i] = kind(atoms.residueNameCode(i));
+            maxRadius = Math.max(maxRadius, radii[i]);
+            maxCovalent = Math.max(maxCovalent, covalent[i]);
+        }
+        double cutoff = Math.max(2 * maxRadius - allowedOverlap, 2 * maxCovalent + BOND_TOLERANCE);
+        CellGrid grid = CellGrid.of(atoms, Math.max(cutoff, 0.1));
+        Search search = new Search(atoms, radii, covalent, kinds, allowedOverlap, cutoff);
+        Candidates found = pool == null
+                ? search.walk(grid, 0, grid.cellCount())
+                : pool.invoke(new WalkTask(search, grid, 0, grid.cellCount()));
+
+        // The bonds as rows of neighbours in both directions
+        int[] rowStart = new int[n + 1];
+        for (int k = 0; k < found.bonds.size(); k++) {
+            long bond = found.bonds.get(k);
+            rowStart[PairSet.first(bond) + 1]++;
+            rowStart[PairSet.second(bond) + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            rowStart[i + 1] += rowStart[i];
+        }
+        int[] next = Arrays.copyOf(rowStart, n);
+        int[] neighbours = new int[rowStart[n]];
+        for (int k = 0; k < found.bonds.size(); k++) {
+            long bond = found.bonds.get(k);
+            neighbours[next[PairSet.first(bond)]++] = PairSet.second(bond);
+            neighbours[next[PairSet.second(bond)]++] = PairSet.first(bond);
+        }
+
+        LongList clashes = found.clashes;
+        int kept = 0;
+        for (int k = 0; k < clashes.size(); k++) {
+            long pair = clashes.get(k);
+            if (!withinTwoBonds(PairSet.first(pair), PairSet.second(pair), rowStart, neighbours)) {
+                clashes.set(kept++, pair);
+            }
+        }
+        int excluded = clashes.size() - kept;
+        clashes.truncate(kept);
+        clashes.sort();
+        long[] sorted = new long[kept];
+        for (int k = 0; k < kept; k++) {
+            sorted[k] = clashes.get(k);
+        }
+        return new SelfClashes(atoms, sorted, found.bonds.size(), excluded, found.comparisons);
+    }
+
+    /**
+     * @return true if atoms i and j are bonded or bonded to the same atom
+     */
+    private static boolean withinTwoBonds(int i, int j, int[] rowStart, int[] neighbours) {
+        for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+            int middle = neighbours[k];
+            if (middle == j) {
+                return true;
+            }
+            for (int l = rowStart[middle]; l < rowStart[middle + 1]; l++) {
+                if (neighbours[l] == j) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static byte kind(int residueName) {
+        for (int code : STANDARD) {
+            if (code == residueName) {
+                return POLYMER;
+            }
+        }
+        for (int code : WATER) {
+            if (code == residueName) {
+                return SOLVENT;
+            }
+        }
+        return HETERO;
+    }
+
+    private static int[] codes(String... names) {
+        int[] codes = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            codes[i] = AtomTable.pack(names[i]);
+        }
+        return codes;
+    }
+
+    /**
+     * @return the number of clashes
+     */
+    public int size() {
+        return clashes.length;
+    }
+
+    /**
+     * @return the index of the first atom of clash k, the lower of the two
+     */
+    public int first(int k) {
+        return PairSet.first(clashes[k]);
+    }
+
+    /**
+     * @return the index of the second atom of clash k
+     */
+    public int second(int k) {
+        return PairSet.second(clashes[k]);
+    }
+
+    /**
+     * @return the distance in Å between the atoms of clash k
+     */
+    public double distance(int k) {
+        return atoms.distance(first(k), second(k));
+    }
+
+    /**
+     * @return the number of bonds found
+     */
+    public int bonds() {
+        return bonds;
+    }
+
+    /**
+     * @return the number of overlapping pairs that were not clashes as they are bonded or 1-3 pairs
+     */
+    public int excluded() {
+        return excluded;
+    }
+
+    /**
+     * @return the number of pairs whose distance was computed
+     */
+    public long comparisons() {
+        return comparisons;
+    }
+
+    /**
+     * Writes the clashes as text: the number of clashes, excluded pairs and comparisons, then a
+     * line per clash with the serial, residue name, residue number and atom name of both atoms
+     * and their distance in Å
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path file) throws IOException {
+        try (PipelinedWriter writer = new PipelinedWriter(file, 2)) {
+            PipelinedWriter.Lines lines = writer.take();
+            lines.put("Number of clashes: ").put(size()).newLine();
+            lines.put("Number of bonded and 1-3 pairs excluded: ").put(excluded).newLine();
+            lines.put("Number of comparisons made: ").put(comparisons).newLine();
+            for (int k = 0; k < size(); k++) {
+                lines = writer.reserve(lines, LINE_BYTES);
+                int atom1 = first(k);
+                int atom2 = second(k);
+                lines.put(atoms.serial(atom1)).put(' ').putPacked(atoms.residueNameCode(atom1))
+                        .put(' ').put(atoms.residueNumber(atom1)).put(' ').putPacked(atoms.nameCode(atom1)).put(' ')
+                        .put(atoms.serial(atom2)).put(' ').putPacked(atoms.residueNameCode(atom2))
+                        .put(' ').put(atoms.residueNumber(atom2)).put(' ').putPacked(atoms.nameCode(atom2)).put(' ')
+                        .put(distance(k), 3).newLine();
+            }
+            writer.write(lines);
+        }
+    }
+
+    /**
+     * The bonds and overlapping pairs found in a range of cells
+     */
+    private static final class Candidates {
+        final LongList bonds = new LongList();
+        final LongList clashes = new LongList();
+        long comparisons;
+
+        Candidates add(Candidates other) {
+            for (int k = 0; k < other.bonds.size(); k++) {
+                bonds.add(other.bonds.get(k));
+            }
+            for (int k = 0; k < other.clashes.size(); k++) {
+                clashes.add(other.clashes.get(k));
+            }
+            comparisons += other.comparisons;
+            return this;
+        }
+    }
+
+    /**
+     * The distance and topology tests of a pair, shared by the threads
+     */
+    private static final class Search {
+        private final Atoms atoms;
+        private final double[] radii;
+        private final double[] covalent;
+        private final byte[] kinds;
+        private final double allowedOverlap;
+        private final double cutoffSquared;
+
+        Search(Atoms atoms, double[] radii, double[] covalent, byte[] kinds, double allowedOverlap, double cutoff) {
+            this.atoms = atoms;
+            this.radii = radii;
+            this.covalent = covalent;
+            this.kinds = kinds;
+            this.allowedOverlap = allowedOverlap;
+            this.cutoffSquared = cutoff * cutoff;
+        }
+
+        Candidates walk(CellGrid grid, int fromCell, int toCell) {
+            Candidates found = new Candidates();
+            grid.visitPairs(fromCell, toCell, (i, j) -> {
+                double dx = atoms.x(i) - atoms.x(j);
+                double dy = atoms.y(i) - atoms.y(j);
+                double dz = atoms.z(i) - atoms.z(j);
+                double distanceSquared = dx * dx + dy * dy + dz * dz;
+                found.comparisons++;
+                if (distanceSquared >= cutoffSquared) {
+                    return;
+                }
+                long pair = PairSet.canonical(i, j);
+                double bond = covalent[i] + covalent[j] + BOND_TOLERANCE;
+                if (distanceSquared < bond * bond && bondable(i, j)) {
+                    found.bonds.add(pair);
+                }
+                double contact = radii[i] + radii[j] - allowedOverlap;
+                if (contact > 0 && distanceSquared < contact * contact) {
+                    found.clashes.add(pair);
+                }
+            });
+            return found;
+        }
+
+        /**
+         * @return true if the residue topology allows a bond between atoms i and j
+         */
+        private boolean bondable(int i, int j) {
+            boolean sameChain = atoms.chain(i) == atoms.chain(j);
+            int gap = atoms.residueNumber(j) - atoms.residueNumber(i);
+            if (sameChain && gap == 0 && atoms.residueNameCode(i) == atoms.residueNameCode(j)) {
+                return true;
+            }
+            if (kinds[i] == SOLVENT || kinds[j] == SOLVENT) {
+                return false;
+            }
+            if (kinds[i] == HETERO || kinds[j] == HETERO) {
+                return true;
+            }
+            int name1 = atoms.nameCode(i);
+            int name2 = atoms.nameCode(j);
+            if (name1 == SG && name2 == SG) {
+                return true;
+            }
+            if (!sameChain || Math.abs(gap) > 1) {
+                return false;
+            }
+            // The link goes from the lower numbered residue, or either way within an insertion
+            return gap >= 0 && isLink(name1, name2) || gap <= 0 && isLink(name2, name1);
+        }
+
+        private static boolean isLink(int from, int to) {
+            return from == C && to == N || (from == O3 || from == O3_OLD) && to == P;
+        }
+    }
+
+    /**
+     * Walks a range of cells, split into ranges of about GRAIN atoms
+     */
+    private static final class WalkTask extends RecursiveTask<Candidates> {
+        private static final int GRAIN = 1 << 14;
+        private final Search search;
+        private final CellGrid grid;
+        private final int fromCell, toCell;
+
+        WalkTask(Search search, CellGrid grid, int fromCell, int toCell) {
+            this.search = search;
+            this.grid = grid;
+            this.fromCell = fromCell;
+            this.toCell = toCell;
+        }
+
+        @Override
+        protected Candidates compute() {
+            if (toCell - fromCell > 1 && grid.points(fromCell, toCell) > GRAIN) {
+                int middle = (fromCell + toCell) >>> 1;
+                WalkTask right = new WalkTask(search, grid, middle, toCell);
+                right.fork();
+                Candidates left = new WalkTask(search, grid, fromCell, middle).compute();
+                return left.add(right.join());
+            }
+            return search.walk(grid, fromCell, toCell);
+        }
+    }
+}
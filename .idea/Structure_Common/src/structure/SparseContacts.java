@@ -0,0 +1,269 @@
+package structure;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Residue contact map in compressed sparse row (CSR) form: the columns j &gt; i in contact with
+ * every row i, in ascending order, the rows one after the other. It takes 4 bytes per contact
+ * and 4 per residue where a dense bitset takes N(N-1)/2 bits, so chains of tens of
+ * thousands of residues, whose contacts grow with N but whose pairs grow with N², fit.
+ * <p>
+ * {@link #of} finds the contacts with a neighbour search on a {@link CellGrid} with cells of the
+ * cutoff, which only tests the pairs of neighbouring cells, each once. The maps of several
+ * cutoffs are found in one search at the largest, every pair put in the bucket of the smallest
+ * cutoff it is within.
+ */
+public final class SparseContacts implements Contacts {
+
+    private final int[] residueNumbers;
+    /**
+     * The columns of row i are columns[rowStart[i]] to columns[rowStart[i + 1] - 1]
+     */
+    private final int[] rowStart;
+    private final int[] columns;
+    private final long comparisons;
+
+    /**
+     * Creates a map from its pairs
+     *
+     * @param residueNumbers residue number of every row, the array is kept
+     * @param pairs          the pairs in contact as row indices packed with {@link PairSet#pack},
+     *                       in either order and possibly repeated; pairs of a row with itself
+     *                       are left out. The list is sorted in place.
+     */
+    public SparseContacts(int[] residueNumbers, LongList pairs) {
+        this(residueNumbers, canonical(pairs), 0);
+    }
+
+    private SparseContacts(int[] residueNumbers, LongList pairs, long comparisons) {
+        int n = residueNumbers.length;
+        this.residueNumbers = residueNumbers;
+        this.comparisons = comparisons;
+        pairs.sort();
+        rowStart = new int[n + 1];
+        int count = 0;
+        for (int k = 0; k < pairs.size(); k++) {
+            long pair = pairs.get(k);
+            if (count == 0 || pair != pairs.get(count - 1)) {
+                pairs.set(count++, pair);
+                rowStart[PairSet.first(pair) + 1]++;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            rowStart[i + 1] += rowStart[i];
+        }
+        columns = new int[count];
+        for (int k = 0; k < count; k++) {
+            columns[k] = PairSet.second(pairs.get(k));
+        }
+    }
+
+    /**
+     * @return the pairs with the lower row first, without the pairs of a row with itself
+     */
+    private static LongList canonical(LongList pairs) {
+        int kept = 0;
+        for (int k = 0; k < pairs.size(); k++) {
+            int i = PairSet.first(pairs.get(k));
+            int j = PairSet.second(pairs.get(k));
+            if (i != j) {
+                pairs.set(kept++, PairSet.canonical(i, j));
+            }
+        }
+        pairs.truncate(kept);
+        return pairs;
+    }
+
+    /**
+     * Computes the contact map of a set of residues on the calling thread
+     *
+     * @param atoms  the residues, normally their alpha-carbons
+     * @param cutoff contact distance in Å, pairs closer than this are in contact
+     */
+    public static SparseContacts of(Atoms atoms, double cutoff) {
+        return of(atoms, cutoff, null);
+    }
+
+    /**
+     * Computes the contact map of a set of residues with a neighbour search, on the squared
+     * distance. The result does not depend on the number of threads.
+     *
+     * @param atoms  the residues, normally their alpha-carbons
+     * @param cutoff contact distance in Å, pairs closer than this are in contact
+     * @param pool   pool to search ranges of cells on, or null to search on the calling thread
+     */
+    public static SparseContacts of(Atoms atoms, double cutoff, ForkJoinPool pool) {
+        return of(atoms, new double[]{cutoff}, pool)[0];
+    }
+
+    /**
+     * Computes the contact maps of a set of residues at several cutoffs in one neighbour search
+     * at the largest. Every map records the comparisons of that one search.
+     *
+     * @param atoms   the residues, normally their alpha-carbons
+     * @param cutoffs contact distances in Å, in any order
+     * @param pool    pool to search ranges of cells on, or null to search on the calling thread
+     * @return the map of every cutoff, in the order of the cutoffs
+     */
+    public static SparseContacts[] of(Atoms atoms, double[] cutoffs, ForkJoinPool pool) {
+        int n = atoms.size();
+        int[] residueNumbers = new int[n];
+        for (int i = 0; i < n; i++) {
+            residueNumbers[i] = atoms.residueNumber(i);
+        }
+        double[] ascending = cutoffs.clone();
+        Arrays.sort(ascending);
+        double[] cutoffsSquared = new double[ascending.length];
+        for (int k = 0; k < ascending.length; k++) {
+            cutoffsSquared[k] = ascending[k] * ascending[k];
+        }
+        CellGrid grid = CellGrid.of(atoms, ascending[ascending.length - 1]);
+        SearchTask search = new SearchTask(atoms, cutoffsSquared, grid, 0, grid.cellCount());
+        SearchTask found = pool == null ? search.search() : pool.invoke(search);
+
+        SparseContacts[] maps = new SparseContacts[cutoffs.length];
+        for (int m = 0; m < cutoffs.length; m++) {
+            // The map of a cutoff holds the buckets of that cutoff and every smaller one
+            int last = Arrays.binarySearch(ascending, cutoffs[m]);
+            LongList pairs = new LongList();
+            for (int bucket = 0; bucket <= last; bucket++) {
+                for (int k = 0; k < found.buckets[bucket].size(); k++) {
+                    pairs.add(found.buckets[bucket].get(k));
+                }
+            }
+            maps[m] = new SparseContacts(residueNumbers, pairs, found.comparisons);
+        }
+        return maps;
+    }
+
+    @Override
+    public int size() {
+        return residueNumbers.length;
+    }
+
+    @Override
+    public int residueNumber(int i) {
+        return residueNumbers[i];
+    }
+
+    @Override
+    public int row(int i, int[] columns) {
+        int length = rowStart[i + 1] - rowStart[i];
+        System.arraycopy(this.columns, rowStart[i], columns, 0, length);
+        return length;
+    }
+
+    /**
+     * @return the number of contacts of row i with a higher index
+     */
+    public int rowCount(int i) {
+        return rowStart[i + 1] - rowStart[i];
+    }
+
+    /**
+     * @return true if residue i and j are in contact, in either order
+     */
+    public boolean contains(int i, int j) {
+        if (i == j) {
+            return false;
+        }
+        int row = Math.min(i, j);
+        int column = Math.max(i, j);
+        int lo = rowStart[row];
+        int hi = rowStart[row + 1] - 1;
+        while (lo <= hi) {
+            int middle = (lo + hi) >>> 1;
+            if (columns[middle] < column) {
+                lo = middle + 1;
+            } else if (columns[middle] > column) {
+                hi = middle - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public long count() {
+        return columns.length;
+    }
+
+    /**
+     * @return the number of pairs whose distance was computed by {@link #of}, 0 for a map made from its pairs
+     */
+    public long comparisons() {
+        return comparisons;
+    }
+
+    /**
+     * Searches a range of cells for the pairs in contact, split into ranges of about GRAIN residues
+     */
+    private static final class SearchTask extends RecursiveTask<SearchTask> {
+        private static final int GRAIN = 1 << 14;
+        private final Atoms atoms;
+        /**
+         * The squared cutoffs in ascending order
+         */
+        private final double[] cutoffsSquared;
+        private final CellGrid grid;
+        private final int fromCell, toCell;
+        /**
+         * The pairs within each cutoff but not the one before it
+         */
+        final LongList[] buckets;
+        long comparisons;
+
+        SearchTask(Atoms atoms, double[] cutoffsSquared, CellGrid grid, int fromCell, int toCell) {
+            this.atoms = atoms;
+            this.cutoffsSquared = cutoffsSquared;
+            this.grid = grid;
+            this.fromCell = fromCell;
+            this.toCell = toCell;
+            buckets = new LongList[cutoffsSquared.length];
+            for (int k = 0; k < buckets.length; k++) {
+                buckets[k] = new LongList();
+            }
+        }
+
+        @Override
+        protected SearchTask compute() {
+            if (toCell - fromCell > 1 && grid.points(fromCell, toCell) > GRAIN) {
+                int middle = (fromCell + toCell) >>> 1;
+                SearchTask right = new SearchTask(atoms, cutoffsSquared, grid, middle, toCell);
+                right.fork();
+                SearchTask left = new SearchTask(atoms, cutoffsSquared, grid, fromCell, middle).compute();
+                SearchTask found = right.join();
+                for (int bucket = 0; bucket < buckets.length; bucket++) {
+                    for (int k = 0; k < found.buckets[bucket].size(); k++) {
+                        left.buckets[bucket].add(found.buckets[bucket].get(k));
+                    }
+                }
+                left.comparisons += found.comparisons;
+                return left;
+            }
+            return search();
+        }
+
+        SearchTask search() {
+            int largest = cutoffsSquared.length - 1;
+            grid.visitPairs(fromCell, toCell, (i, j) -> {
+                comparisons++;
+                double dx = atoms.x(j) - atoms.x(i);
+                double dy = atoms.y(j) - atoms.y(i);
+                double dz = atoms.z(j) - atoms.z(i);
+                double distanceSquared = dx * dx + dy * dy + dz * dz;
+                if (distanceSquared < cutoffsSquared[largest]) {
+                    int bucket = 0;
+                    while (distanceSquared >= cutoffsSquared[bucket]) {
+                        bucket++;
+                    }
+                    buckets[bucket].add(PairSet.canonical(i, j));
+                }
+            });
+            return this;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package structure;
+
+import java.util.Arrays;
+
+/**
+ * Sort-and-sweep broadphase over spheres of different radii. The spheres are sorted once by
+ * their centre along the axis where they spread the most; a query sphere then only looks at
+ * the window of spheres whose centres lie within its radius plus the largest radius along that
+ * axis. The coordinates and radii are stored in that order, so a window is a block of
+ * consecutive entries that the {@link DistanceKernel} tests several spheres at a time.
+ * <p>
+ * Unlike a {@link CellGrid}, whose cells must fit the largest pair of radii, the window adapts
+ * to the radius of every query, so small atoms such as hydrogens look at fewer candidates.
+ */
+public final class SweepAndPrune {
+
+    private final int n;
+    /**
+     * 0, 1 or 2 for sorting along x, y or z
+     */
+    private final int axis;
+    /**
+     * The spheres in ascending order of their centre on the sweep axis: the centre on that axis,
+     * and the coordinates and radius of each
+     */
+    private final double[] centres;
+    private final double[] x, y, z;
+    private final double[] radii;
+    private final double maxRadius;
+    private final DistanceKernel kernel = DistanceKernel.get();
+
+    /**
+     * Sorts the atoms of a table or store
+     *
+     * @param radii the radius of every atom
+     */
+    public SweepAndPrune(Atoms atoms, double[] radii) {
+        n = atoms.size();
+        double[][] coordinates = atoms instanceof AtomTable
+                ? new double[][]{((AtomTable) atoms).xs(), ((AtomTable) atoms).ys(), ((AtomTable) atoms).zs()}
+                : copy(atoms);
+        int widest = 0;
+        double widestExtent = -1;
+        for (int a = 0; a < 3; a++) {
+            double lo = Double.POSITIVE_INFINITY;
+            double hi = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                lo = Math.min(lo, coordinates[a][i]);
+                hi = Math.max(hi, coordinates[a][i]);
+            }
+            if (hi - lo > widestExtent) {
+                widest = a;
+                widestExtent = hi - lo;
+            }
+        }
+        axis = widest;
+
+        double[] centre = coordinates[axis];
+        int[] order = sort(centre, n);
+
+        centres = new double[n];
+        x = new double[n];
+        y = new double[n];
+        z = new double[n];
+        this.radii = new double[n];
+        double max = 0;
+        for (int k = 0; k < n; k++) {
+            int i = order[k];
+            centres[k] = centre[i];
+            x[k] = coordinates[0][i];
+            y[k] = coordinates[1][i];
+            z[k] = coordinates[2][i];
+            this.radii[k] = radii[i];
+            max = Math.max(max, radii[i]);
+        }
+        maxRadius = max;
+    }
+
+    /**
+     * Sorts the spheres by their centre, equal centres in the order of the atoms. The primitive
+     * keys pack the centre rounded to a float above the index, which orders them as the doubles
+     * except where two round to the same float; an insertion pass then puts those runs in order.
+     *
+     * @return the index of the sphere at every position
+     */
+    private static int[] sort(double[] centre, int n) {
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            int bits = Float.floatToIntBits((float) centre[i]);
+            keys[i] = ((long) (bits ^ ((bits >> 31) & 0x7FFFFFFF)) << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[n];
+        for (int k = 0; k < n; k++) {
+            int i = (int) keys[k];
+            int j = k;
+            while (j > 0 && Double.compare(centre[order[j - 1]], centre[i]) > 0) {
+                order[j] = order[j - 1];
+                j--;
+            }
+            order[j] = i;
+        }
+        return order;
+    }
+
+    private static double[][] copy(Atoms atoms) {
+        double[][] coordinates = new double[3][atoms.size()];
+        for (int i = 0; i < atoms.size(); i++) {
+            coordinates[0][i] = atoms.x(i);
+            coordinates[1][i] = atoms.y(i);
+            coordinates[2][i] = atoms.z(i);
+        }
+        return coordinates;
+    }
+
+    public int size() {
+        return n;
+    }
+
+    public double maxRadius() {
+        return maxRadius;
+    }
+
+    /**
+     * @return the first position of the window of a query sphere in the sweep order
+     */
+    public int windowStart(double x, double y, double z, double radius) {
+        return firstAtLeast(centre(x, y, z) - radius - maxRadius);
+    }
+
+    /**
+     * @return the end of the window of a query sphere in the sweep order, exclusive
+     */
+    public int windowEnd(double x, double y, double z, double radius) {
+        return firstAtLeast(Math.nextUp(centre(x, y, z) + radius + maxRadius));
+    }
+
+    private double centre(double x, double y, double z) {
+        return axis == 0 ? x : axis == 1 ? y : z;
+    }
+
+    /**
+     * @return the first position whose centre is at least value
+     */
+    private int firstAtLeast(double value) {
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (centres[mid] < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Finds the first sphere of part of a window overlapping a query sphere
+     *
+     * @param from first position to test
+     * @param to   end of the positions to test, exclusive
+     * @return the position of the first overlapping sphere, or -1 if there is none
+     */
+    public int firstOverlap(double x, double y, double z, double radius, int from, int to) {
+        return kernel.firstOverlap(x, y, z, radius, this.x, this.y, this.z, radii, from, to);
+    }
+}
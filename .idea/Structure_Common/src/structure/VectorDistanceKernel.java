@@ -0,0 +1,63 @@
+package structure;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link DistanceKernel} testing as many atoms at once as the CPU has double lanes. Only loaded
+ * through {@link DistanceKernel#get()}, which falls back to the scalar kernel when the
+ * incubator module is missing. Atoms past the last full vector are tested one by one.
+ */
+final class VectorDistanceKernel extends DistanceKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    VectorDistanceKernel() {
+        if (LANES < 2) {
+            throw new UnsupportedOperationException("No vector lanes for doubles");
+        }
+    }
+
+    @Override
+    public String name() {
+        return "vector (" + LANES + " doubles)";
+    }
+
+    @Override
+    public long within(double px, double py, double pz, double[] x, double[] y, double[] z, int from, int count, double cutoffSquared) {
+        long mask = 0;
+        int k = 0;
+        int upper = SPECIES.loopBound(count);
+        for (; k < upper; k += LANES) {
+            DoubleVector dx = DoubleVector.fromArray(SPECIES, x, from + k).sub(px);
+            DoubleVector dy = DoubleVector.fromArray(SPECIES, y, from + k).sub(py);
+            DoubleVector dz = DoubleVector.fromArray(SPECIES, z, from + k).sub(pz);
+            VectorMask<Double> closer = dx.mul(dx).add(dy.mul(dy)).add(dz.mul(dz)).compare(VectorOperators.LT, cutoffSquared);
+            // Most blocks hold no contact, and only the test for any is cheap on every JDK
+            if (closer.anyTrue()) {
+                mask |= closer.toLong() << k;
+            }
+        }
+        return k == count ? mask : mask | super.within(px, py, pz, x, y, z, from + k, count - k, cutoffSquared) << k;
+    }
+
+    @Override
+    public int firstOverlap(double px, double py, double pz, double radius, double[] x, double[] y, double[] z, double[] radii, int from, int to) {
+        int k = from;
+        int upper = from + SPECIES.loopBound(to - from);
+        for (; k < upper; k += LANES) {
+            DoubleVector dx = DoubleVector.fromArray(SPECIES, x, k).sub(px);
+            DoubleVector dy = DoubleVector.fromArray(SPECIES, y, k).sub(py);
+            DoubleVector dz = DoubleVector.fromArray(SPECIES, z, k).sub(pz);
+            DoubleVector contact = DoubleVector.fromArray(SPECIES, radii, k).add(radius);
+            VectorMask<Double> overlaps = dx.mul(dx).add(dy.mul(dy)).add(dz.mul(dz)).compare(VectorOperators.LT, contact.mul(contact));
+            if (overlaps.anyTrue()) {
+                return k + overlaps.firstTrue();
+            }
+        }
+        return super.firstOverlap(px, py, pz, radius, x, y, z, radii, k, to);
+    }
+}
@@ -0,0 +1,235 @@
+package structure;
+
+import java.util.Arrays;
+
+/**
+ * Verlet neighbour list over the frames of a trajectory (e.g. the models of an NMR ensemble or
+ * the frames of an MD run), for finding the pairs in contact in every frame without searching
+ * all pairs again. Two atoms are in contact when they are closer than the sum of their radii;
+ * with the same radius for all atoms that is a cutoff of twice the radius.
+ * <p>
+ * The list holds the pairs that were closer than the sum of their radii plus a skin, measured at
+ * the reference position of every atom. While no atom is more than half the skin away from its
+ * reference position, every pair in contact is in the list, so a frame only tests the listed
+ * pairs. An atom that moved further gets its pairs searched again from its new position, which
+ * becomes its reference; when more than a quarter of the atoms moved that far the whole list is
+ * rebuilt.
+ * <p>
+ * With groups, only pairs of atoms of different groups are listed, e.g. the atoms of a receptor
+ * (group 0) and of a ligand (group 1).
+ */
+public final class VerletList {
+
+    private final int n;
+    private final double[] radii;
+    private final int[] groups;
+    private final double skin;
+    private final double maxRadius;
+    private final double[] refX, refY, refZ;
+    /**
+     * Neighbours of every atom, in both directions: row i holds j and row j holds i
+     */
+    private final int[][] rows;
+    private final int[] rowSizes;
+    private final boolean[] moved;
+    private double[] x, y, z;
+    private boolean built;
+    private int rebuiltAtoms;
+
+    /**
+     * @param radii  the radius of every atom
+     * @param groups the group of every atom, only pairs of different groups are listed; null to list every pair
+     * @param skin   distance added to the contact distance of every pair, in Å
+     */
+    public VerletList(double[] radii, int[] groups, double skin) {
+        if (skin <= 0) {
+            throw new IllegalArgumentException("The skin must be positive: " + skin);
+        }
+        n = radii.length;
+        this.radii = radii;
+        this.groups = groups;
+        this.skin = skin;
+        double max = 0;
+        for (double radius : radii) {
+            max = Math.max(max, radius);
+        }
+        maxRadius = max;
+        refX = new double[n];
+        refY = new double[n];
+        refZ = new double[n];
+        rows = new int[n][];
+        rowSizes = new int[n];
+        moved = new boolean[n];
+    }
+
+    public int size() {
+        return n;
+    }
+
+    /**
+     * @return the number of atoms whose pairs were searched again by the last {@link #update}
+     */
+    public int rebuiltAtoms() {
+        return rebuiltAtoms;
+    }
+
+    /**
+     * Moves the atoms to the positions of a new frame, updating the list where needed.
+     * The arrays are kept until the next update and must not change in between.
+     *
+     * @return the number of atoms whose pairs were searched again, n when the list was rebuilt
+     */
+    public int update(double[] x, double[] y, double[] z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        if (!built) {
+            return rebuiltAtoms = rebuild();
+        }
+        double limit = skin / 2 * (skin / 2);
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            double dx = x[i] - refX[i];
+            double dy = y[i] - refY[i];
+            double dz = z[i] - refZ[i];
+            moved[i] = dx * dx + dy * dy + dz * dz > limit;
+            if (moved[i]) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return rebuiltAtoms = 0;
+        }
+        if (count > n / 4) {
+            return rebuiltAtoms = rebuild();
+        }
+        for (int i = 0; i < n; i++) {
+            if (moved[i]) {
+                unlink(i);
+                refX[i] = x[i];
+                refY[i] = y[i];
+                refZ[i] = z[i];
+            }
+        }
+        // A listed partner is at most half the skin from its reference position
+        CellGrid grid = new CellGrid(x, y, z, n, 2 * maxRadius + 1.5 * skin);
+        for (int i = 0; i < n; i++) {
+            if (moved[i]) {
+                int atom = i;
+                grid.visitNeighbours(x[i], y[i], z[i], j -> {
+                    if (j != atom && (!moved[j] || j > atom)) {
+                        linkIfNear(atom, j);
+                    }
+                    return true;
+                });
+            }
+        }
+        return rebuiltAtoms = count;
+    }
+
+    /**
+     * Searches all pairs from the current positions
+     *
+     * @return n
+     */
+    private int rebuild() {
+        System.arraycopy(x, 0, refX, 0, n);
+        System.arraycopy(y, 0, refY, 0, n);
+        System.arraycopy(z, 0, refZ, 0, n);
+        Arrays.fill(rowSizes, 0);
+        CellGrid grid = new CellGrid(refX, refY, refZ, n, 2 * maxRadius + skin);
+        for (int i = 0; i < n; i++) {
+            int atom = i;
+            grid.visitNeighbours(refX[i], refY[i], refZ[i], j -> {
+                if (j > atom) {
+                    linkIfNear(atom, j);
+                }
+                return true;
+            });
+        }
+        built = true;
+        return n;
+    }
+
+    /**
+     * Lists a pair if its atoms are in different groups and their reference positions are
+     * within the contact distance plus the skin
+     */
+    private void linkIfNear(int i, int j) {
+        if (groups != null && groups[i] == groups[j]) {
+            return;
+        }
+        double dx = refX[i] - refX[j];
+        double dy = refY[i] - refY[j];
+        double dz = refZ[i] - refZ[j];
+        double reach = radii[i] + radii[j] + skin;
+        if (dx * dx + dy * dy + dz * dz < reach * reach) {
+            add(i, j);
+            add(j, i);
+        }
+    }
+
+    private void add(int row, int atom) {
+        int[] neighbours = rows[row];
+        if (neighbours == null) {
+            neighbours = rows[row] = new int[8];
+        } else if (rowSizes[row] == neighbours.length) {
+            neighbours = rows[row] = Arrays.copyOf(neighbours, neighbours.length * 2);
+        }
+        neighbours[rowSizes[row]++] = atom;
+    }
+
+    /**
+     * Removes every pair of an atom
+     */
+    private void unlink(int i) {
+        for (int k = 0; k < rowSizes[i]; k++) {
+            int j = rows[i][k];
+            int[] neighbours = rows[j];
+            for (int m = 0; m < rowSizes[j]; m++) {
+                if (neighbours[m] == i) {
+                    neighbours[m] = neighbours[--rowSizes[j]];
+                    break;
+                }
+            }
+        }
+        rowSizes[i] = 0;
+    }
+
+    /**
+     * Finds the pairs in contact at the positions of the last update
+     *
+     * @param contacts receives every pair in contact packed with {@link PairSet#pack}, lower atom
+     *                 first, in ascending order; cleared first
+     */
+    public void contacts(LongList contacts) {
+        contacts.truncate(0);
+        for (int i = 0; i < n; i++) {
+            int[] neighbours = rows[i];
+            for (int k = 0; k < rowSizes[i]; k++) {
+                int j = neighbours[k];
+                if (j > i) {
+                    double dx = x[i] - x[j];
+                    double dy = y[i] - y[j];
+                    double dz = z[i] - z[j];
+                    double contact = radii[i] + radii[j];
+                    if (dx * dx + dy * dy + dz * dz < contact * contact) {
+                        contacts.add(PairSet.pack(i, j));
+                    }
+                }
+            }
+        }
+        contacts.sort();
+    }
+
+    /**
+     * @return the number of listed pairs
+     */
+    public long listedPairs() {
+        long listed = 0;
+        for (int size : rowSizes) {
+            listed += size;
+        }
+        return listed / 2;
+    }
+}